@@ -0,0 +1,78 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import protocol.ProtocolCodec;
+import protocol.TimestampFormat;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks the encoding and decoding of the messages sent by SyncSender and DelayRequestListener and
+ * read by SyncListener
+ *
+ * Description:
+ * Run with the gc profiler (-prof gc), the gc.alloc.rate.norm of every benchmark must stay 0 B/op.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    private static final int BUFFER_SIZE = 256;
+
+    @Param({"MILLIS", "NANOS"})
+    public TimestampFormat format;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer followUp = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer request = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ProtocolCodec codec = new ProtocolCodec();
+    private long id = 0;
+
+    @Setup
+    public void setUp() {
+        ProtocolCodec.encodeFollowUp(followUp, 1, System.nanoTime(), format);
+        ProtocolCodec.encodeDelayRequest(request, 1, format);
+    }
+
+    @Benchmark
+    public int encodeSync() {
+        ProtocolCodec.encodeSync(buffer, id++);
+        return buffer.limit();
+    }
+
+    @Benchmark
+    public int encodeFollowUp() {
+        ProtocolCodec.encodeFollowUp(buffer, id, id++, format);
+        return buffer.limit();
+    }
+
+    @Benchmark
+    public long decodeFollowUp() {
+        followUp.rewind();
+        codec.decode(followUp);
+        return codec.timestamp();
+    }
+
+    @Benchmark
+    public int delayRequestToResponse() {
+        request.rewind();
+        codec.decode(request);
+        ProtocolCodec.encodeDelayResponse(buffer, codec.id(), id++, codec.format());
+        return buffer.limit();
+    }
+}
@@ -0,0 +1,238 @@
+package bench;
+
+import protocol.Protocol;
+import protocol.ProtocolCodec;
+import protocol.TimestampFormat;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * This class simulates a fleet of slaves sending DELAY_REQUESTs to one master
+ *
+ * Description:
+ * Starting thousands of {@link slave.Client}s is not possible in one machine, each of them has its own threads and
+ * sockets. Here N virtual slaves share a single non-blocking {@link DatagramChannel} and a single thread:
+ * - each virtual slave waits a random time between two DELAY_REQUESTs, either uniformly between minFactor and
+ * maxFactor times the sync interval like {@link slave.Client}'s DelayRequestSender (uniform), or exponentially
+ * with the same mean (poisson)
+ * - the id of a request is the number of the virtual slave in the upper 32 bits and its sequence number in the
+ * lower ones, so the responses are matched without any lookup
+ * - the due requests are kept in a binary heap of primitive arrays ordered by their sending time
+ * A request without response when the next one of its slave is sent, or at the end of the run, is counted as lost.
+ * Reported: requests sent, responses received, lost requests, throughput, and the percentiles of the latency between
+ * the sending of a request and the reception of its response.
+ * Usage: LoadGenerator [master] [slaves] [interval (ms)] [duration (s)] [uniform|poisson] [minFactor] [maxFactor]
+ */
+public class LoadGenerator {
+
+    private static final int BUFFER_SIZE = 256;
+    private static final int PORT = 4446;
+    // maximum number of latencies kept for the percentiles
+    private static final int MAX_LATENCIES = 10_000_000;
+
+    private final int slaves;
+    private final long intervalNanos;
+    private final boolean poisson;
+    private final int minFactor;
+    private final int maxFactor;
+    private final Random random = new Random();
+
+    // heap of the next sending times
+    private final long[] heapTimes;
+    private final int[] heapSlaves;
+    private int heapSize = 0;
+    // state of each virtual slave
+    private final int[] sequences;
+    private final long[] sentAt;
+    private final boolean[] outstanding;
+
+    private final long[] latencies;
+    private int latencyCount = 0;
+    private long sent = 0;
+    private long received = 0;
+    private long lost = 0;
+
+    /**
+     * Constructor
+     * @param slaves number of virtual slaves
+     * @param interval sync interval, in milliseconds
+     * @param poisson true for exponential waits, false for uniform ones
+     * @param minFactor minimal wait, in intervals (uniform only)
+     * @param maxFactor maximal wait, in intervals (uniform only)
+     */
+    public LoadGenerator(int slaves, int interval, boolean poisson, int minFactor, int maxFactor) {
+        this.slaves = slaves;
+        this.intervalNanos = interval * 1_000_000L;
+        this.poisson = poisson;
+        this.minFactor = minFactor;
+        this.maxFactor = maxFactor;
+        heapTimes = new long[slaves];
+        heapSlaves = new int[slaves];
+        sequences = new int[slaves];
+        sentAt = new long[slaves];
+        outstanding = new boolean[slaves];
+        latencies = new long[MAX_LATENCIES];
+    }
+
+    private long nextWait() {
+        double meanFactor = (minFactor + maxFactor) / 2.0;
+        if (poisson) {
+            return (long) (-Math.log(1 - random.nextDouble()) * meanFactor * intervalNanos);
+        }
+        return minFactor * intervalNanos + (long) (random.nextDouble() * (maxFactor - minFactor) * intervalNanos);
+    }
+
+    /**
+     * Runs the load against the master
+     * @param master address of the master
+     * @param durationSeconds duration of the run
+     * @throws IOException if the channel fails
+     */
+    public void run(InetAddress master, int durationSeconds) throws IOException {
+        InetSocketAddress masterAddress = new InetSocketAddress(master, PORT);
+        ProtocolCodec codec = new ProtocolCodec();
+        ByteBuffer sendBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long start = System.nanoTime();
+        long end = start + durationSeconds * 1_000_000_000L;
+        // the first requests are spread over one mean wait so that the slaves do not start together
+        for (int slave = 0; slave < slaves; slave++) {
+            push(start + (long) (random.nextDouble() * (minFactor + maxFactor) / 2.0 * intervalNanos), slave);
+        }
+        try (DatagramChannel channel = DatagramChannel.open(); Selector selector = Selector.open()) {
+            channel.configureBlocking(false);
+            channel.bind(null);
+            channel.register(selector, SelectionKey.OP_READ);
+            long now = start;
+            while (now < end) {
+                while (heapSize > 0 && heapTimes[0] <= now) {
+                    int slave = heapSlaves[0];
+                    pop();
+                    if (outstanding[slave]) {
+                        lost++;
+                    }
+                    long id = ((long) slave << 32) | (sequences[slave]++ & 0xffffffffL);
+                    ProtocolCodec.encodeDelayRequest(sendBuffer, id, TimestampFormat.NANOS);
+                    sentAt[slave] = System.nanoTime();
+                    if (channel.send(sendBuffer, masterAddress) > 0) {
+                        outstanding[slave] = true;
+                        sent++;
+                    }
+                    push(now + nextWait(), slave);
+                }
+                long timeout = heapSize > 0 ? (heapTimes[0] - now) / 1_000_000L : 1;
+                selector.select(Math.max(1, Math.min(timeout, 100)));
+                selector.selectedKeys().clear();
+                receive(channel, receiveBuffer, codec);
+                now = System.nanoTime();
+            }
+            // grace period of one second for the last responses
+            end = now + 1_000_000_000L;
+            while (now < end) {
+                selector.select(100);
+                selector.selectedKeys().clear();
+                receive(channel, receiveBuffer, codec);
+                now = System.nanoTime();
+            }
+        }
+        for (int slave = 0; slave < slaves; slave++) {
+            if (outstanding[slave]) {
+                lost++;
+            }
+        }
+        report((System.nanoTime() - start) / 1e9);
+    }
+
+    private void receive(DatagramChannel channel, ByteBuffer buffer, ProtocolCodec codec) throws IOException {
+        while (channel.receive(buffer) != null) {
+            long now = System.nanoTime();
+            buffer.flip();
+            if (codec.decode(buffer) && codec.command() == Protocol.DELAY_RESPONSE) {
+                long id = codec.id();
+                int slave = (int) (id >>> 32);
+                if (slave >= 0 && slave < slaves && outstanding[slave] && (int) id == sequences[slave] - 1) {
+                    outstanding[slave] = false;
+                    received++;
+                    if (latencyCount < latencies.length) {
+                        latencies[latencyCount++] = now - sentAt[slave];
+                    }
+                }
+            }
+            buffer.clear();
+        }
+    }
+
+    private void push(long time, int slave) {
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heapTimes[parent] <= time) {
+                break;
+            }
+            heapTimes[i] = heapTimes[parent];
+            heapSlaves[i] = heapSlaves[parent];
+            i = parent;
+        }
+        heapTimes[i] = time;
+        heapSlaves[i] = slave;
+    }
+
+    private void pop() {
+        long time = heapTimes[--heapSize];
+        int slave = heapSlaves[heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heapTimes[child + 1] < heapTimes[child]) {
+                child++;
+            }
+            if (heapTimes[child] >= time) {
+                break;
+            }
+            heapTimes[i] = heapTimes[child];
+            heapSlaves[i] = heapSlaves[child];
+            i = child;
+        }
+        heapTimes[i] = time;
+        heapSlaves[i] = slave;
+    }
+
+    private void report(double seconds) {
+        Arrays.sort(latencies, 0, latencyCount);
+        System.out.println(String.format(Locale.ROOT, "%d slaves, %.1f s: %d requests, %d responses, %d lost "
+                        + "(%.2f%%), %.1f requests/s", slaves, seconds, sent, received, lost,
+                sent == 0 ? 0 : 100.0 * lost / sent, sent / seconds));
+        if (latencyCount > 0) {
+            System.out.println(String.format(Locale.ROOT, "latency (us): p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, "
+                            + "max %.1f", percentile(0.5), percentile(0.9), percentile(0.99), percentile(0.999),
+                    latencies[latencyCount - 1] / 1e3));
+        }
+    }
+
+    private double percentile(double p) {
+        return latencies[(int) Math.min(latencyCount - 1, Math.floor(p * latencyCount))] / 1e3;
+    }
+
+    public static void main(String[] args) throws IOException {
+        InetAddress master = InetAddress.getByName(args.length > 0 ? args[0] : "127.0.0.1");
+        int slaves = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int interval = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int duration = args.length > 3 ? Integer.parseInt(args[3]) : 60;
+        boolean poisson = args.length > 4 && "poisson".equals(args[4]);
+        int minFactor = args.length > 5 ? Integer.parseInt(args[5]) : 4;
+        int maxFactor = args.length > 6 ? Integer.parseInt(args[6]) : 60;
+        new LoadGenerator(slaves, interval, poisson, minFactor, maxFactor).run(master, duration);
+    }
+}
@@ -0,0 +1,80 @@
+package bench;
+
+import master.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import protocol.ProtocolCodec;
+import protocol.TimestampFormat;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks the round trip DELAY_REQUEST -> DELAY_RESPONSE against a non-blocking {@link Server} of the
+ * benchmark process, over the loopback
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LoopbackBenchmark {
+
+    private static final int BUFFER_SIZE = 256;
+
+    private Server server;
+    private DatagramSocket socket;
+    private final ProtocolCodec codec = new ProtocolCodec();
+    private final ByteBuffer requestBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer responseBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private DatagramPacket request;
+    private DatagramPacket response;
+    private long id = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new Server();
+        server.setNonBlocking(true);
+        server.start();
+        socket = new DatagramSocket();
+        socket.setSoTimeout(1000);
+        request = new DatagramPacket(requestBuffer.array(), 0, InetAddress.getLoopbackAddress(), 4446);
+        response = new DatagramPacket(responseBuffer.array(), BUFFER_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        socket.close();
+        server.close();
+    }
+
+    @Benchmark
+    public long delayRequestResponse() throws IOException {
+        long requestId = id++;
+        ProtocolCodec.encodeDelayRequest(requestBuffer, requestId, TimestampFormat.NANOS);
+        request.setLength(requestBuffer.limit());
+        socket.send(request);
+        do {
+            response.setLength(BUFFER_SIZE);
+            socket.receive(response);
+            responseBuffer.clear();
+            responseBuffer.limit(response.getLength());
+        } while (!codec.decode(responseBuffer) || codec.id() != requestId);
+        return codec.timestamp();
+    }
+}
@@ -0,0 +1,119 @@
+package bench;
+
+import clock.MonotonicTimeSource;
+import clock.TimeSource;
+import metrics.Histogram;
+import metrics.MetricsRegistry;
+import timestamping.DatagramReceiver;
+import timestamping.KernelTimestampReceiver;
+import timestamping.SocketReceiver;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class compares the error of the arrival times given by the two receive paths of the slave
+ *
+ * Description:
+ * A sender thread multicasts datagrams carrying the time of their sending, read from the same {@link TimeSource} as
+ * the receiver. For each datagram the receiver computes arrival - sending, the true transit over the loopback being a
+ * few microseconds, the rest is the error of the receive path: wakeup and scheduling of the receiving thread for
+ * {@link SocketReceiver}, only the kernel part for {@link KernelTimestampReceiver}.
+ * The datagrams lost are not counted. Busy threads can be started to load the cores like on a busy host.
+ * The percentiles of the error of each path are printed, the kernel path is skipped when the native library is not
+ * found (run with -Djava.library.path=native after building it with native/Makefile).
+ * Usage: ReceiveTimestampBenchmark [datagrams] [busy threads] [interval (us)]
+ */
+public class ReceiveTimestampBenchmark {
+
+    private static final Logger LOG = Logger.getLogger(ReceiveTimestampBenchmark.class.getName());
+    private static final int PORT = 4455;
+    private static final int BUFFER_SIZE = 256;
+
+    private static volatile boolean busy = true;
+
+    public static void main(String[] args) throws Exception {
+        int datagrams = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int busyThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int interval = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        InetAddress group = InetAddress.getByName("228.5.6.8");
+        TimeSource timeSource = new MonotonicTimeSource();
+
+        for (int i = 0; i < busyThreads; i++) {
+            Thread thread = new Thread(() -> {
+                // spins on the volatile flag
+                while (busy) {
+                    continue;
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+        run("socket", new SocketReceiver(PORT, group), group, timeSource, datagrams, interval);
+        KernelTimestampReceiver kernel = KernelTimestampReceiver.tryOpen(PORT, group);
+        if (kernel == null) {
+            System.out.println("kernel: native library not available");
+        } else {
+            run("kernel", kernel, group, timeSource, datagrams, interval);
+        }
+        busy = false;
+    }
+
+    private static void run(String name, DatagramReceiver receiver, InetAddress group, TimeSource timeSource,
+                            int datagrams, int interval) throws Exception {
+        Thread sender = new Thread(() -> {
+            try (MulticastSocket socket = new MulticastSocket()) {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                DatagramPacket packet = new DatagramPacket(buffer.array(), Long.BYTES, group, PORT);
+                for (int i = 0; i < datagrams; i++) {
+                    buffer.putLong(0, timeSource.currentTimeNanos());
+                    socket.send(packet);
+                    long next = System.nanoTime() + interval * 1000L;
+                    while (System.nanoTime() < next) {
+                        Thread.yield();
+                    }
+                }
+                buffer.putLong(0, -1);
+                socket.send(packet);
+                // unblocks the receiver if the last datagram was lost, the receiving thread closes it
+                Thread.sleep(1000);
+                receiver.shutdown();
+            } catch (IOException | InterruptedException e) {
+                LOG.log(Level.SEVERE, e.getMessage(), e);
+            }
+        });
+        Histogram errors = new MetricsRegistry("bench").histogram(name);
+        int received = 0;
+        try {
+            sender.start();
+            while (true) {
+                ByteBuffer buffer;
+                try {
+                    buffer = receiver.receive();
+                } catch (IOException e) {
+                    break;
+                }
+                long arrival = timeSource.currentTimeNanos() - receiver.age();
+                long sentAt = buffer.getLong(0);
+                if (sentAt < 0) {
+                    break;
+                }
+                errors.record(Math.max(0, arrival - sentAt));
+                received++;
+            }
+        } finally {
+            receiver.close();
+        }
+        sender.join();
+        System.out.println(String.format(Locale.ROOT, "%s: %d datagrams, error (us): mean %.1f, p50 %.1f, p90 %.1f, "
+                        + "p99 %.1f, p99.9 %.1f, max %.1f", name, received, errors.getMean() / 1e3,
+                errors.getP50() / 1e3, errors.getP90() / 1e3, errors.getP99() / 1e3, errors.getP999() / 1e3,
+                errors.getMax() / 1e3));
+    }
+}
@@ -0,0 +1,68 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import protocol.ProtocolCodec;
+import protocol.TimestampFormat;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks the encoding and the sending of a FOLLOW_UP through a {@link DatagramSocket} over the
+ * loopback, like SyncSender does
+ *
+ * Description:
+ * The receiver is never read, the kernel drops the datagrams once its buffer is full. The allocations measured here
+ * are the ones of the JDK's socket path, the codec itself does not allocate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SendBenchmark {
+
+    private static final int BUFFER_SIZE = 256;
+
+    private DatagramSocket receiver;
+    private DatagramSocket sender;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private DatagramPacket packet;
+    private long id = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        sender = new DatagramSocket();
+        packet = new DatagramPacket(buffer.array(), 0, InetAddress.getLoopbackAddress(), receiver.getLocalPort());
+    }
+
+    @TearDown
+    public void tearDown() {
+        sender.close();
+        receiver.close();
+    }
+
+    @Benchmark
+    public int followUp() throws IOException {
+        ProtocolCodec.encodeFollowUp(buffer, id, id++, TimestampFormat.NANOS);
+        packet.setLength(buffer.limit());
+        sender.send(packet);
+        return buffer.limit();
+    }
+}
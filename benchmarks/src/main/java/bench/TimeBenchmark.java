@@ -0,0 +1,54 @@
+package bench;
+
+import clock.MonotonicTimeSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import slave.TimeSnapshot;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks the cost of reading the corrected time of the slave compared to the raw clocks
+ * The corrected time is read like Client.currentTimeNanos(): a volatile read of the published snapshot and the
+ * extrapolation of its logical clock. The snapshot is LOCKED with a frequency adjustment, a fresh Client would only
+ * measure the short-circuit of the UNSYNCHRONIZED snapshot.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimeBenchmark {
+
+    private final MonotonicTimeSource timeSource = new MonotonicTimeSource();
+    private volatile TimeSnapshot snapshot = new TimeSnapshot(1, timeSource.currentTimeNanos(),
+            timeSource.currentTimeNanos() - 250_000, -12_345.6, 250_000, 80_000, TimeSnapshot.Quality.LOCKED);
+
+    @Benchmark
+    public long systemNanoTime() {
+        return System.nanoTime();
+    }
+
+    @Benchmark
+    public long systemCurrentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public long monotonicTimeSource() {
+        return timeSource.currentTimeNanos();
+    }
+
+    @Benchmark
+    public long lockedCorrectedTime() {
+        return snapshot.time(timeSource.currentTimeNanos());
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Native part of timestamping.KernelTimestampReceiver
+ *
+ * Opens an IPv4 UDP socket with the SO_TIMESTAMPNS option and reads it with recvmsg, the kernel timestamp of the
+ * datagram is taken from the SCM_TIMESTAMPNS control message.
+ */
+#include <jni.h>
+
+#include <arpa/inet.h>
+#include <errno.h>
+#include <stdio.h>
+#include <netinet/in.h>
+#include <string.h>
+#include <sys/socket.h>
+#include <time.h>
+#include <unistd.h>
+
+#define NANOS_PER_SECOND 1000000000LL
+
+static void throw_io_exception(JNIEnv *env, const char *what) {
+    char message[256];
+    jclass exception = (*env)->FindClass(env, "java/io/IOException");
+    snprintf(message, sizeof(message), "%s: %s", what, strerror(errno));
+    if (exception != NULL) {
+        (*env)->ThrowNew(env, exception, message);
+    }
+}
+
+JNIEXPORT jint JNICALL Java_timestamping_KernelTimestampReceiver_open0(JNIEnv *env, jclass clazz, jint port,
+                                                                       jint group) {
+    int one = 1;
+    struct sockaddr_in address;
+    int fd = socket(AF_INET, SOCK_DGRAM, 0);
+    if (fd < 0) {
+        throw_io_exception(env, "socket");
+        return -1;
+    }
+    /* shared with the sockets of the other slaves of the host, like java.net.MulticastSocket */
+    if (setsockopt(fd, SOL_SOCKET, SO_REUSEADDR, &one, sizeof(one)) < 0) {
+        throw_io_exception(env, "SO_REUSEADDR");
+        close(fd);
+        return -1;
+    }
+    if (setsockopt(fd, SOL_SOCKET, SO_TIMESTAMPNS, &one, sizeof(one)) < 0) {
+        throw_io_exception(env, "SO_TIMESTAMPNS");
+        close(fd);
+        return -1;
+    }
+    memset(&address, 0, sizeof(address));
+    address.sin_family = AF_INET;
+    address.sin_addr.s_addr = htonl(INADDR_ANY);
+    address.sin_port = htons((uint16_t) port);
+    if (bind(fd, (struct sockaddr *) &address, sizeof(address)) < 0) {
+        throw_io_exception(env, "bind");
+        close(fd);
+        return -1;
+    }
+    if (group != 0) {
+        struct ip_mreq membership;
+        membership.imr_multiaddr.s_addr = htonl((uint32_t) group);
+        membership.imr_interface.s_addr = htonl(INADDR_ANY);
+        if (setsockopt(fd, IPPROTO_IP, IP_ADD_MEMBERSHIP, &membership, sizeof(membership)) < 0) {
+            throw_io_exception(env, "IP_ADD_MEMBERSHIP");
+            close(fd);
+            return -1;
+        }
+    }
+    return fd;
+}
+
+JNIEXPORT jint JNICALL Java_timestamping_KernelTimestampReceiver_receive0(JNIEnv *env, jclass clazz, jint fd,
+                                                                          jobject buffer, jint capacity,
+                                                                          jlongArray result) {
+    char control[CMSG_SPACE(sizeof(struct timespec))];
+    struct sockaddr_in source;
+    struct iovec vector;
+    struct msghdr message;
+    struct cmsghdr *header;
+    struct timespec now;
+    jlong values[4] = {0, 0, 0, 0};
+    ssize_t length;
+
+    vector.iov_base = (*env)->GetDirectBufferAddress(env, buffer);
+    vector.iov_len = (size_t) capacity;
+    memset(&message, 0, sizeof(message));
+    message.msg_name = &source;
+    message.msg_namelen = sizeof(source);
+    message.msg_iov = &vector;
+    message.msg_iovlen = 1;
+    message.msg_control = control;
+    message.msg_controllen = sizeof(control);
+    do {
+        length = recvmsg(fd, &message, 0);
+    } while (length < 0 && errno == EINTR);
+    clock_gettime(CLOCK_REALTIME, &now);
+    if (length < 0) {
+        throw_io_exception(env, "recvmsg");
+        return -1;
+    }
+    for (header = CMSG_FIRSTHDR(&message); header != NULL; header = CMSG_NXTHDR(&message, header)) {
+        if (header->cmsg_level == SOL_SOCKET && header->cmsg_type == SCM_TIMESTAMPNS) {
+            struct timespec stamp;
+            memcpy(&stamp, CMSG_DATA(header), sizeof(stamp));
+            values[0] = stamp.tv_sec * NANOS_PER_SECOND + stamp.tv_nsec;
+        }
+    }
+    values[1] = now.tv_sec * NANOS_PER_SECOND + now.tv_nsec;
+    values[2] = ntohl(source.sin_addr.s_addr);
+    values[3] = ntohs(source.sin_port);
+    (*env)->SetLongArrayRegion(env, result, 0, 4, values);
+    return (jint) length;
+}
+
+JNIEXPORT jint JNICALL Java_timestamping_KernelTimestampReceiver_localPort0(JNIEnv *env, jclass clazz, jint fd) {
+    struct sockaddr_in address;
+    socklen_t length = sizeof(address);
+    if (getsockname(fd, (struct sockaddr *) &address, &length) < 0) {
+        throw_io_exception(env, "getsockname");
+        return -1;
+    }
+    return ntohs(address.sin_port);
+}
+
+JNIEXPORT void JNICALL Java_timestamping_KernelTimestampReceiver_shutdown0(JNIEnv *env, jclass clazz, jint fd) {
+    /* wakes up the thread blocked in recvmsg, the descriptor stays open until close0 */
+    shutdown(fd, SHUT_RDWR);
+}
+
+JNIEXPORT void JNICALL Java_timestamping_KernelTimestampReceiver_close0(JNIEnv *env, jclass clazz, jint fd) {
+    close(fd);
+}
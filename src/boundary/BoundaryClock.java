@@ -0,0 +1,165 @@
+package boundary;
+
+import master.Server;
+import metrics.MetricsHttpServer;
+import slave.Client;
+import slave.TimeSnapshot;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class represents a boundary clock of the Precision Time Protocol.
+ * Follows a master as a slave and serves its own slaves as a master.
+ *
+ * Description:
+ * A single master serving the whole fleet answers every DELAY_REQUEST, and every slave measures a path crossing all
+ * the switches between itself and the master. A boundary clock splits the hierarchy in tiers:
+ * - upstream, a {@link Client} synchronizes the boundary clock with its master, through the multicast group of the
+ * master or in unicast
+ * - downstream, a {@link Server} sends SYNC and FOLLOW_UP messages to another multicast group, or to its registered
+ * slaves, and answers their DELAY_REQUESTs, with the corrected time of the {@link Client} as its time source
+ * The slaves of a tier only measure the path to their boundary clock, and the master only answers the boundary clocks
+ * of the tier below. Boundary clocks can be chained.
+ * The {@link Server} is started once the {@link Client} is locked, or after the lock timeout, so that the slaves do
+ * not follow the free-running clock of the boundary clock and step when it locks.
+ * Both sides are configured through {@link #getUpstream()} and {@link #getDownstream()} before {@link #start()}. The
+ * downstream side uses the default ports, so the slaves do not need any change. On a host which also runs the master
+ * it follows, or one of its slaves, the ports of one side must be moved with setPorts.
+ * The boundary clock is stopped by {@link #close()}, which stops the downstream side first.
+ */
+public class BoundaryClock implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(BoundaryClock.class.getName());
+
+    // slave of the master of the tier above
+    private final Client upstream;
+    // master of the tier below
+    private final Server downstream;
+    // time waited for the upstream side to lock before serving the tier below anyway
+    private long lockTimeoutMillis = 60_000;
+    private volatile boolean downstreamStarted = false;
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor
+     * @param upstreamGroup multicast group of the master followed
+     * @param downstreamGroup multicast group to which the SYNC messages of the boundary clock are sent
+     * @param timeInterval interval defining the time elapsed between two SYNC commands sent by the boundary clock
+     */
+    public BoundaryClock(InetAddress upstreamGroup, InetAddress downstreamGroup, int timeInterval) {
+        upstream = new Client(upstreamGroup, timeInterval);
+        downstream = new Server(downstreamGroup, timeInterval);
+        downstream.setTimeSource(upstream::currentTimeNanos);
+    }
+
+    /**
+     * Default constructor
+     * Follows the group 228.5.6.7 and serves the group 228.5.6.8 every 2 seconds
+     * @throws UnknownHostException if the groups cannot be resolved
+     */
+    public BoundaryClock() throws UnknownHostException {
+        this(InetAddress.getByName("228.5.6.7"), InetAddress.getByName("228.5.6.8"), 2000);
+    }
+
+    /**
+     * @return the slave side, to be configured before {@link #start()}
+     */
+    public Client getUpstream() {
+        return upstream;
+    }
+
+    /**
+     * @return the master side, to be configured before {@link #start()}, its time source must not be replaced
+     */
+    public Server getDownstream() {
+        return downstream;
+    }
+
+    /**
+     * Sets the time waited for the upstream side to lock before the downstream side is started anyway
+     * Must be called before {@link #start()}
+     * @param lockTimeoutMillis timeout, in milliseconds, 0 to start the downstream side at once
+     */
+    public void setLockTimeout(long lockTimeoutMillis) {
+        this.lockTimeoutMillis = lockTimeoutMillis;
+    }
+
+    /**
+     * Launches the boundary clock
+     * Starts the upstream side, waits until it is locked or the lock timeout, then starts the downstream side unless
+     * the boundary clock was closed in the meantime
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the lock, the downstream side
+     * is not started then
+     */
+    public void start() throws InterruptedException {
+        upstream.start();
+        long deadline = System.nanoTime() + lockTimeoutMillis * 1_000_000L;
+        while (!closed && upstream.getSnapshot().quality() != TimeSnapshot.Quality.LOCKED
+                && deadline - System.nanoTime() > 0) {
+            Thread.sleep(Math.min(upstream.getSyncInterval(), lockTimeoutMillis));
+        }
+        TimeSnapshot snapshot = upstream.getSnapshot();
+        synchronized (this) {
+            // closed while waiting for the lock
+            if (closed) {
+                return;
+            }
+            if (snapshot.quality() != TimeSnapshot.Quality.LOCKED) {
+                LOG.log(Level.WARNING, () -> "serving an upstream clock which is not locked: " + snapshot);
+            }
+            downstream.start();
+            downstreamStarted = true;
+        }
+    }
+
+    /**
+     * Waits until the threads of the boundary clock end
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public void join() throws InterruptedException {
+        if (downstreamStarted) {
+            downstream.join();
+        }
+        upstream.join();
+    }
+
+    /**
+     * Stops the boundary clock
+     * The downstream side is stopped first, so that the tier below is never served a clock which is no longer
+     * followed, then the upstream side.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (downstreamStarted) {
+            downstream.close();
+        }
+        upstream.close();
+    }
+
+    /**
+     * Launches a boundary clock
+     * @param args optional HTTP port on which the metrics of both sides are served (0 for none), optional multicast
+     * group followed, optional multicast group served
+     * @throws IOException if the metrics port cannot be bound
+     * @throws InterruptedException if the main thread is interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        BoundaryClock boundaryClock = new BoundaryClock(
+                InetAddress.getByName(args.length > 1 ? args[1] : "228.5.6.7"),
+                InetAddress.getByName(args.length > 2 ? args[2] : "228.5.6.8"), 2000);
+        // falls back to the user space timestamps without the native library
+        boundaryClock.getUpstream().setKernelTimestamps(true);
+        if (args.length > 0 && Integer.parseInt(args[0]) > 0) {
+            boundaryClock.getDownstream().getMetrics().registerJmx();
+            MetricsHttpServer.expose(boundaryClock.getUpstream().getMetrics(), Integer.parseInt(args[0]))
+                    .add(boundaryClock.getDownstream().getMetrics());
+        }
+        boundaryClock.start();
+        boundaryClock.join();
+    }
+}
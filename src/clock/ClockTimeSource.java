@@ -0,0 +1,27 @@
+package clock;
+
+import protocol.Timestamps;
+
+import java.time.Clock;
+
+/**
+ * This class is a {@link TimeSource} reading a {@link Clock} on every call
+ * It follows every step of the clock, {@link MonotonicTimeSource} should be preferred for the measurements.
+ */
+public class ClockTimeSource implements TimeSource {
+
+    private final Clock clock;
+
+    /**
+     * Constructor
+     * @param clock clock to read
+     */
+    public ClockTimeSource(Clock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public long currentTimeNanos() {
+        return Timestamps.now(clock);
+    }
+}
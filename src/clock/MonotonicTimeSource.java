@@ -0,0 +1,56 @@
+package clock;
+
+import protocol.Timestamps;
+
+import java.time.Clock;
+
+/**
+ * This class is the default {@link TimeSource}
+ * The wall time is read once, when the instance is created, and anchored to {@link System#nanoTime()}. The time is then
+ * derived from the monotonic counter only, so it has the resolution of {@link System#nanoTime()} and does not jump when
+ * NTP or an administrator steps the system clock in the middle of a measurement.
+ */
+public class MonotonicTimeSource implements TimeSource {
+
+    // number of readings of the wall clock done to find the tightest anchor
+    private static final int ANCHOR_ATTEMPTS = 16;
+
+    private final long wallAnchor;
+    private final long nanoAnchor;
+
+    /**
+     * Constructor
+     * @param clock wall clock to anchor to
+     */
+    public MonotonicTimeSource(Clock clock) {
+        long bestWall = 0;
+        long bestNano = 0;
+        long bestWindow = Long.MAX_VALUE;
+        // the wall clock is read between two readings of the counter, the narrowest window gives the best anchor
+        for (int i = 0; i < ANCHOR_ATTEMPTS; i++) {
+            long before = System.nanoTime();
+            long wall = Timestamps.now(clock);
+            long after = System.nanoTime();
+            if (after - before < bestWindow) {
+                bestWindow = after - before;
+                bestWall = wall;
+                bestNano = before + (after - before) / 2;
+            }
+        }
+        wallAnchor = bestWall;
+        nanoAnchor = bestNano;
+    }
+
+    /**
+     * Default constructor
+     * Anchors to the UTC system clock
+     */
+    public MonotonicTimeSource() {
+        this(Clock.systemUTC());
+    }
+
+    @Override
+    public long currentTimeNanos() {
+        return wallAnchor + (System.nanoTime() - nanoAnchor);
+    }
+}
@@ -0,0 +1,39 @@
+package clock;
+
+/**
+ * This class is a deterministic {@link TimeSource} which only moves when it is told to
+ * It is meant to be injected in the master and the slaves by tests and simulations.
+ */
+public class SimulatedTimeSource implements TimeSource {
+
+    private volatile long now;
+
+    /**
+     * Constructor
+     * @param start initial time, in nanoseconds since the epoch
+     */
+    public SimulatedTimeSource(long start) {
+        this.now = start;
+    }
+
+    @Override
+    public long currentTimeNanos() {
+        return now;
+    }
+
+    /**
+     * Sets the current time
+     * @param now new time, in nanoseconds since the epoch
+     */
+    public synchronized void set(long now) {
+        this.now = now;
+    }
+
+    /**
+     * Moves the time forward
+     * @param nanos number of nanoseconds to add
+     */
+    public synchronized void advance(long nanos) {
+        now += nanos;
+    }
+}
@@ -0,0 +1,14 @@
+package clock;
+
+/**
+ * This interface is the source of time of the master and the slaves
+ * Every reading of the time goes through a {@link TimeSource} so that the clock can be replaced, for example by a
+ * {@link SimulatedTimeSource} in tests.
+ */
+public interface TimeSource {
+
+    /**
+     * @return the current time, in nanoseconds since the epoch
+     */
+    long currentTimeNanos();
+}
@@ -0,0 +1,39 @@
+package eventlog;
+
+import java.util.logging.Level;
+
+/**
+ * This enumeration defines the events written by the hot paths of the master and the slaves in an {@link EventLog}
+ * Each event carries an id (of the SYNC or of the DELAY_REQUEST) and two values, the template formats the values as
+ * %1$d and %2$d.
+ */
+public enum Event {
+    MASTER_TIME(Level.INFO, "MASTER TIME: %1$d"),
+    OFFSET(Level.INFO, "offset: %1$d ns"),
+    DELAY(Level.INFO, "delay: %1$d ns"),
+    LOCAL_TIME(Level.INFO, "LOCAL TIME: %1$d (epoch %2$d)\n"),
+    OUTLIER(Level.WARNING, "outlier rejected: %1$d ns"),
+    SYNC_INTERVAL(Level.INFO, "sync interval: %1$d ms");
+
+    private final Level level;
+    private final String template;
+
+    Event(Level level, String template) {
+        this.level = level;
+        this.template = template;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @param id id of the message
+     * @param first first value
+     * @param second second value
+     * @return the text of the event
+     */
+    public String format(long id, long first, long second) {
+        return "[" + id + "] " + String.format(template, first, second);
+    }
+}
@@ -0,0 +1,170 @@
+package eventlog;
+
+import execution.StoppableTask;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * This class is an asynchronous log for the hot paths of the master and the slaves
+ *
+ * Description:
+ * Formatting and writing a log line takes time and may block on the console or on a handler, which delays the next
+ * timestamp. Here the hot paths only write fixed-size binary records (event, id, two values) in a ring buffer of
+ * longs allocated once, a reader reads them, formats them and passes them to the {@link Logger}. The reader is a
+ * {@link StoppableTask}, run by the {@link execution.TaskGroup} of the master or the slave which owns the log.
+ * - a writer claims a slot with a compare-and-set on the next sequence, writes the record and publishes the slot by
+ * storing its sequence: writing never locks nor waits
+ * - when the ring is full the record is dropped and counted, the writer is never slowed down by the reader
+ * - the reader parks when the ring is empty, the next writer unparks it. The writer publishes its slot before reading
+ * the waiting flag of the reader, and the reader sets the flag before checking the ring again, so that a record is
+ * never left behind a parked reader. A writer only unparks the reader when it is waiting.
+ */
+public class EventLog implements StoppableTask {
+
+    private static final int RECORD_SIZE = 4;
+    private static final Event[] EVENTS = Event.values();
+
+    private final Logger logger;
+    private final int capacity;
+    private final int mask;
+    private final long[] records;
+    private final AtomicLongArray published;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean shouldRun = true;
+    // thread running the reader, set by run
+    private volatile Thread reader;
+    // true while the reader is parked or about to park
+    private volatile boolean waiting = false;
+
+    /**
+     * Constructor
+     * @param logger logger receiving the formatted events
+     * @param capacity number of records of the ring, rounded up to a power of two
+     */
+    public EventLog(Logger logger, int capacity) {
+        this.logger = logger;
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        records = new long[this.capacity * RECORD_SIZE];
+        published = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * Constructor with a ring of 4096 records
+     * @param logger logger receiving the formatted events
+     */
+    public EventLog(Logger logger) {
+        this(logger, 4096);
+    }
+
+    /**
+     * Writes an event, never blocks
+     * @param event event
+     * @param id id of the message
+     * @param first first value
+     * @param second second value
+     */
+    public void log(Event event, long id, long first, long second) {
+        long sequence;
+        do {
+            sequence = next.get();
+            if (sequence - consumed.get() >= capacity) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!next.compareAndSet(sequence, sequence + 1));
+        int slot = (int) (sequence & mask);
+        int offset = slot * RECORD_SIZE;
+        records[offset] = event.ordinal();
+        records[offset + 1] = id;
+        records[offset + 2] = first;
+        records[offset + 3] = second;
+        published.set(slot, sequence);
+        if (waiting) {
+            LockSupport.unpark(reader);
+        }
+    }
+
+    /**
+     * Writes an event with a single value, never blocks
+     * @param event event
+     * @param id id of the message
+     * @param value value
+     */
+    public void log(Event event, long id, long value) {
+        log(event, id, value, 0);
+    }
+
+    /**
+     * Formats the records until the log is stopped, parks while the ring is empty
+     */
+    @Override
+    public void run() {
+        reader = Thread.currentThread();
+        while (shouldRun) {
+            if (drain() == 0) {
+                waiting = true;
+                if (shouldRun && !isPublished(consumed.get())) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Stops the reader once the records published are formatted, returns without waiting
+     */
+    @Override
+    public void stop() {
+        shouldRun = false;
+        Thread current = reader;
+        if (current != null) {
+            LockSupport.unpark(current);
+        }
+    }
+
+    private boolean isPublished(long sequence) {
+        return published.get((int) (sequence & mask)) == sequence;
+    }
+
+    /**
+     * Formats the records published
+     * @return the number of records formatted
+     */
+    private int drain() {
+        int count = 0;
+        long sequence = consumed.get();
+        while (true) {
+            if (!isPublished(sequence)) {
+                return count;
+            }
+            int offset = (int) (sequence & mask) * RECORD_SIZE;
+            Event event = EVENTS[(int) records[offset]];
+            long id = records[offset + 1];
+            long first = records[offset + 2];
+            long second = records[offset + 3];
+            consumed.lazySet(++sequence);
+            if (logger.isLoggable(event.getLevel())) {
+                logger.log(event.getLevel(), event.format(id, first, second));
+            }
+            count++;
+        }
+    }
+
+    /**
+     * @return the number of records dropped because the ring was full
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,15 @@
+package execution;
+
+/**
+ * This interface is a long-lived task which can be asked to stop
+ * {@link #stop()} is called from another thread: it must clear the running flag of the task and wake it up (close
+ * its socket, wake up its selector, interrupt its sleep), then return without waiting, the {@link TaskGroup} waits for
+ * the end of {@link #run()}.
+ */
+public interface StoppableTask extends Runnable {
+
+    /**
+     * Asks the task to stop
+     */
+    void stop();
+}
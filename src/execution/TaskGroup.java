@@ -0,0 +1,189 @@
+package execution;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class runs the long-lived tasks of a master or a slave and manages their lifecycle
+ *
+ * Description:
+ * The tasks are submitted to an {@link ExecutorService}, by default the one of {@link #defaultExecutor()}: a virtual
+ * thread per task on Java 21 and later, found by reflection so that the code still runs on Java 8, daemon platform
+ * threads otherwise. A process can thus host many slaves without paying for a platform thread each.
+ * A task which blocks in native code (see {@link timestamping.KernelTimestampReceiver}) would pin the carrier of a
+ * virtual thread, it is started with {@link #startDedicated(String, Runnable)} on its own platform thread instead.
+ * Lifecycle:
+ * - {@link #start(String, Runnable)} runs a task, the name is given to its thread, nothing is started once the group
+ * is stopped
+ * - {@link #stop(long)} asks the {@link StoppableTask}s to stop, waits for the tasks to end, interrupts the ones still
+ * running after the grace period, and shuts down the executor if it was created by the group
+ * - {@link #join()} waits until every task ended
+ * The threads are daemons, a program whose main thread has nothing else to do must call {@link #join()}.
+ */
+public class TaskGroup {
+
+    private static final Logger LOG = Logger.getLogger(TaskGroup.class.getName());
+
+    private final String name;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final List<Future<?>> futures = new ArrayList<>();
+    private final List<Thread> dedicatedThreads = new ArrayList<>();
+    private final List<StoppableTask> stoppableTasks = new ArrayList<>();
+    // set by stop, no task is started afterwards
+    private boolean stopped = false;
+
+    /**
+     * Constructor
+     * @param name name of the group, prefix of the names of the threads
+     * @param executor executor running the tasks, null for {@link #defaultExecutor()}
+     */
+    public TaskGroup(String name, ExecutorService executor) {
+        this.name = name;
+        this.ownsExecutor = executor == null;
+        this.executor = executor == null ? defaultExecutor() : executor;
+    }
+
+    /**
+     * Creates an executor running each task in a new virtual thread on Java 21 and later, in a new daemon platform
+     * thread otherwise
+     * @return the executor
+     */
+    public static ExecutorService defaultExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // before Java 21
+            return Executors.newCachedThreadPool(daemonThreads());
+        }
+    }
+
+    private static ThreadFactory daemonThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, "task-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Runs a task in the executor
+     * @param taskName name given to the thread of the task
+     * @param task task to run
+     */
+    public synchronized void start(String taskName, Runnable task) {
+        if (stopped) {
+            return;
+        }
+        String threadName = name + "-" + taskName;
+        track(task);
+        futures.add(executor.submit(() -> {
+            Thread.currentThread().setName(threadName);
+            task.run();
+        }));
+    }
+
+    /**
+     * Runs a task in its own platform thread, for the tasks which block in native code
+     * @param taskName name given to the thread of the task
+     * @param task task to run
+     */
+    public synchronized void startDedicated(String taskName, Runnable task) {
+        if (stopped) {
+            return;
+        }
+        track(task);
+        Thread thread = new Thread(task, name + "-" + taskName);
+        thread.setDaemon(true);
+        dedicatedThreads.add(thread);
+        thread.start();
+    }
+
+    private void track(Runnable task) {
+        if (task instanceof StoppableTask) {
+            stoppableTasks.add((StoppableTask) task);
+        }
+    }
+
+    /**
+     * Asks the {@link StoppableTask}s to stop, waits for the tasks to end, interrupts the ones still running after the
+     * grace period
+     * @param graceMillis time given to the tasks to end by themselves, in milliseconds
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public void stop(long graceMillis) throws InterruptedException {
+        List<StoppableTask> stoppable;
+        synchronized (this) {
+            stopped = true;
+            stoppable = new ArrayList<>(stoppableTasks);
+        }
+        for (StoppableTask task : stoppable) {
+            task.stop();
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(graceMillis);
+        for (Future<?> future : futures()) {
+            try {
+                future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+            } catch (ExecutionException | CancellationException e) {
+                LOG.log(Level.SEVERE, e.getMessage(), e);
+            }
+        }
+        for (Thread thread : dedicatedThreads()) {
+            thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            thread.interrupt();
+        }
+        if (ownsExecutor) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits until every task ended, including the ones started while waiting
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public void join() throws InterruptedException {
+        int joined = 0;
+        while (true) {
+            List<Future<?>> started = futures();
+            List<Thread> threads = dedicatedThreads();
+            if (started.size() + threads.size() == joined) {
+                return;
+            }
+            for (Future<?> future : started) {
+                try {
+                    future.get();
+                } catch (ExecutionException | CancellationException e) {
+                    LOG.log(Level.SEVERE, e.getMessage(), e);
+                }
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            joined = started.size() + threads.size();
+        }
+    }
+
+    private synchronized List<Future<?>> futures() {
+        return new ArrayList<>(futures);
+    }
+
+    private synchronized List<Thread> dedicatedThreads() {
+        return new ArrayList<>(dedicatedThreads);
+    }
+}
@@ -0,0 +1,160 @@
+package journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class is an append-only binary journal of the sync exchanges, written in rotating memory-mapped files
+ *
+ * Description:
+ * Every record has the same width, {@link #RECORD_SIZE} bytes, little-endian:
+ * - int type ({@link #SYNC}, {@link #DELAY_RESPONSE} on the master, {@link #SAMPLE} on the slave), 0 marks the end
+ * - int reserved
+ * - long id of the SYNC or of the DELAY_REQUEST
+ * - long t1, t2, t3, t4, offset and delay, in nanoseconds, 0 when not known
+ * A file holds recordsPerFile records, it is created full of zeros and mapped in memory, so appending a record is a
+ * copy into the mapping and no system call. When a file is full the next one is created (prefix-000001.journal,
+ * prefix-000002.journal...) and the oldest ones are deleted to keep at most maxFiles files. The numbering continues
+ * after the files already in the directory, which count in the maxFiles kept.
+ * The records can be read back with {@link JournalReader}.
+ */
+public class Journal implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(Journal.class.getName());
+
+    public static final int RECORD_SIZE = 64;
+    public static final String EXTENSION = ".journal";
+
+    /**
+     * SYNC sent by the master: id, t1
+     */
+    public static final int SYNC = 1;
+    /**
+     * DELAY_RESPONSE sent by the master: id, t4
+     */
+    public static final int DELAY_RESPONSE = 2;
+    /**
+     * Exchange completed by the slave: id of the SYNC, t1 to t4, offset and delay
+     */
+    public static final int SAMPLE = 3;
+
+    private final Path directory;
+    private final String prefix;
+    private final int recordsPerFile;
+    private final int maxFiles;
+    private final Deque<Path> files = new ArrayDeque<>();
+    private int fileIndex;
+    private MappedByteBuffer buffer;
+
+    /**
+     * Constructor
+     * @param directory directory of the files
+     * @param prefix prefix of the names of the files
+     * @param recordsPerFile number of records per file
+     * @param maxFiles maximal number of files kept
+     * @throws IOException if the directory or the first file cannot be created
+     */
+    public Journal(Path directory, String prefix, int recordsPerFile, int maxFiles) throws IOException {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.recordsPerFile = recordsPerFile;
+        this.maxFiles = maxFiles;
+        Files.createDirectories(directory);
+        List<Path> existing = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "-*" + EXTENSION)) {
+            stream.forEach(existing::add);
+        }
+        existing.sort(Comparator.comparingInt(path -> JournalReader.indexOf(path, prefix)));
+        for (Path path : existing) {
+            files.addLast(path);
+            fileIndex = JournalReader.indexOf(path, prefix) + 1;
+        }
+        rotate();
+    }
+
+    /**
+     * Constructor keeping 16 files of one million records (64 MB each)
+     * @param directory directory of the files
+     * @param prefix prefix of the names of the files
+     * @throws IOException if the directory or the first file cannot be created
+     */
+    public Journal(Path directory, String prefix) throws IOException {
+        this(directory, prefix, 1 << 20, 16);
+    }
+
+    private void rotate() throws IOException {
+        if (buffer != null) {
+            buffer.force();
+        }
+        Path path = directory.resolve(String.format("%s-%06d%s", prefix, fileIndex++, EXTENSION));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) recordsPerFile * RECORD_SIZE);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        files.addLast(path);
+        while (files.size() > maxFiles) {
+            Files.deleteIfExists(files.removeFirst());
+        }
+    }
+
+    /**
+     * Appends a record
+     * @param type type of the record
+     * @param id id of the SYNC or of the DELAY_REQUEST
+     * @param t1 master's time of the SYNC
+     * @param t2 slave's time of the SYNC
+     * @param t3 slave's time of the DELAY_REQUEST
+     * @param t4 master's time of the DELAY_REQUEST
+     * @param offset offset computed
+     * @param delay delay computed
+     */
+    public synchronized void append(int type, long id, long t1, long t2, long t3, long t4, long offset, long delay) {
+        if (buffer == null) {
+            return;
+        }
+        try {
+            if (buffer.remaining() < RECORD_SIZE) {
+                rotate();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, e.getMessage(), e);
+            buffer = null;
+            return;
+        }
+        buffer.putInt(type);
+        buffer.putInt(0);
+        buffer.putLong(id);
+        buffer.putLong(t1);
+        buffer.putLong(t2);
+        buffer.putLong(t3);
+        buffer.putLong(t4);
+        buffer.putLong(offset);
+        buffer.putLong(delay);
+    }
+
+    /**
+     * Flushes the current file to the disk, the mapping is released by the garbage collector
+     */
+    @Override
+    public synchronized void close() {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package journal;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This class streams the records of a {@link Journal} and analyses the quality of the slave's clock
+ *
+ * Description:
+ * The files of a journal are read in the order of their numbers, each of them is mapped and its records are given to
+ * a {@link RecordConsumer} until the first empty record.
+ * Run as a program on the journal of a slave, it prints:
+ * - the statistics of the offsets: number of samples, mean, standard deviation, minimum, maximum and percentiles
+ * - the overlapping Allan deviation of the offsets, taken as the time error of the slave, for averaging times of
+ * 1, 2, 4... sample intervals, the interval being the median time between two samples
+ * Usage: JournalReader directory prefix
+ */
+public class JournalReader {
+
+    /**
+     * Receives the records of a journal
+     */
+    public interface RecordConsumer {
+        void accept(int type, long id, long t1, long t2, long t3, long t4, long offset, long delay);
+    }
+
+    private JournalReader() {
+    }
+
+    /**
+     * @param path path of a file of the journal
+     * @param prefix prefix of the names of the files
+     * @return the number of the file
+     */
+    static int indexOf(Path path, String prefix) {
+        String name = path.getFileName().toString();
+        return Integer.parseInt(name.substring(prefix.length() + 1, name.length() - Journal.EXTENSION.length()));
+    }
+
+    /**
+     * Reads all the records of a journal
+     * @param directory directory of the files
+     * @param prefix prefix of the names of the files
+     * @param consumer consumer of the records
+     * @throws IOException if a file cannot be read
+     */
+    public static void read(Path directory, String prefix, RecordConsumer consumer) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "-*" + Journal.EXTENSION)) {
+            stream.forEach(paths::add);
+        }
+        paths.sort(Comparator.comparingInt(path -> indexOf(path, prefix)));
+        for (Path path : paths) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                while (buffer.remaining() >= Journal.RECORD_SIZE) {
+                    int type = buffer.getInt();
+                    if (type == 0) {
+                        break;
+                    }
+                    buffer.getInt();
+                    consumer.accept(type, buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong(),
+                            buffer.getLong(), buffer.getLong(), buffer.getLong());
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the overlapping Allan deviation of a time error series
+     * @param x time errors, in nanoseconds
+     * @param n averaging factor, in samples
+     * @param tau0 interval between two samples, in seconds
+     * @return the Allan deviation, without unit
+     */
+    public static double allanDeviation(double[] x, int n, double tau0) {
+        int terms = x.length - 2 * n;
+        if (terms <= 0) {
+            return Double.NaN;
+        }
+        double sum = 0;
+        for (int i = 0; i < terms; i++) {
+            double d = x[i + 2 * n] - 2 * x[i + n] + x[i];
+            sum += d * d;
+        }
+        double tau = n * tau0;
+        return Math.sqrt(sum / (2.0 * terms * tau * tau)) / 1e9;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: JournalReader directory prefix");
+            return;
+        }
+        List<long[]> samples = new ArrayList<>();
+        long[] counts = new long[4];
+        read(Paths.get(args[0]), args[1], (type, id, t1, t2, t3, t4, offset, delay) -> {
+            if (type > 0 && type < counts.length) {
+                counts[type]++;
+            }
+            if (type == Journal.SAMPLE) {
+                samples.add(new long[]{t2, offset});
+            }
+        });
+        System.out.println(String.format("%d SYNC, %d DELAY_RESPONSE, %d SAMPLE records", counts[Journal.SYNC],
+                counts[Journal.DELAY_RESPONSE], counts[Journal.SAMPLE]));
+        if (samples.size() < 2) {
+            return;
+        }
+        int size = samples.size();
+        double[] offsets = new double[size];
+        double[] intervals = new double[size - 1];
+        double mean = 0;
+        for (int i = 0; i < size; i++) {
+            offsets[i] = samples.get(i)[1];
+            mean += offsets[i] / size;
+            if (i > 0) {
+                intervals[i - 1] = (samples.get(i)[0] - samples.get(i - 1)[0]) / 1e9;
+            }
+        }
+        double variance = 0;
+        for (double offset : offsets) {
+            variance += (offset - mean) * (offset - mean) / (size - 1);
+        }
+        double[] sorted = offsets.clone();
+        Arrays.sort(sorted);
+        System.out.println(String.format(Locale.ROOT, "offset (ns): mean %.0f, std dev %.0f, min %.0f, p50 %.0f, "
+                        + "p99 %.0f, max %.0f", mean, Math.sqrt(variance), sorted[0], sorted[size / 2],
+                sorted[(int) (0.99 * (size - 1))], sorted[size - 1]));
+        Arrays.sort(intervals);
+        double tau0 = intervals[intervals.length / 2];
+        for (int n = 1; 2 * n < size; n *= 2) {
+            System.out.println(String.format(Locale.ROOT, "ADEV(%.1f s) = %.3e", n * tau0,
+                    allanDeviation(offsets, n, tau0)));
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package master;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class is a bounded queue of received DELAY_REQUESTs, from the dispatcher of the {@link Server} to one worker
+ *
+ * Description:
+ * The queue has a single producer and a single consumer. Its slots are allocated once: each one holds a copy of the
+ * datagram in a direct {@link ByteBuffer}, its source and the times taken when it was received, so that the hand-off
+ * does not allocate.
+ * The producer fills the slot at the tail and publishes it by moving the tail, the consumer reads the slot at the
+ * head with {@link #peek()} and gives it back with {@link #release()}. When the queue is full the datagram is refused
+ * and the producer counts it as dropped rather than waiting for the worker.
+ * An empty consumer parks in {@link #await(long)} and is unparked by the next datagram offered, or by
+ * {@link #wakeup()} when the {@link Server} stops.
+ */
+class DelayRequestQueue {
+
+    private final int mask;
+    private final ByteBuffer[] datagrams;
+    private final SocketAddress[] sources;
+    private final long[] receivedAt;
+    private final long[] masterTimes;
+    // next slot read by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // next slot written by the producer
+    private final AtomicLong tail = new AtomicLong();
+    private volatile Thread consumer;
+    private volatile boolean waiting = false;
+
+    /**
+     * Constructor
+     * @param capacity number of slots, a power of two
+     * @param datagramSize largest datagram copied into a slot, in bytes
+     */
+    DelayRequestQueue(int capacity, int datagramSize) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("the capacity must be a power of two: " + capacity);
+        }
+        mask = capacity - 1;
+        datagrams = new ByteBuffer[capacity];
+        sources = new SocketAddress[capacity];
+        receivedAt = new long[capacity];
+        masterTimes = new long[capacity];
+        for (int i = 0; i < capacity; i++) {
+            datagrams[i] = ByteBuffer.allocateDirect(datagramSize);
+        }
+    }
+
+    /**
+     * Copies a received datagram into the queue, called by the producer only
+     * @param datagram datagram between its position and its limit, consumed
+     * @param source sender of the datagram
+     * @param receivedAt time of the reception, from System.nanoTime()
+     * @param masterTime time of the master at the reception, in nanoseconds
+     * @return false if the queue is full, the datagram is not queued then
+     */
+    boolean offer(ByteBuffer datagram, SocketAddress source, long receivedAt, long masterTime) {
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            return false;
+        }
+        int slot = (int) t & mask;
+        ByteBuffer copy = datagrams[slot];
+        copy.clear();
+        copy.put(datagram);
+        copy.flip();
+        sources[slot] = source;
+        this.receivedAt[slot] = receivedAt;
+        masterTimes[slot] = masterTime;
+        // volatile write then volatile read, so that a consumer going to park always sees the new tail
+        tail.set(t + 1);
+        if (waiting) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * @return the slot at the head of the queue, -1 if the queue is empty, called by the consumer only
+     */
+    int peek() {
+        long h = head.get();
+        return h == tail.get() ? -1 : (int) h & mask;
+    }
+
+    /**
+     * Gives the slot at the head of the queue back to the producer, called by the consumer only
+     */
+    void release() {
+        long h = head.get();
+        sources[(int) h & mask] = null;
+        head.set(h + 1);
+    }
+
+    /**
+     * @param slot slot returned by {@link #peek()}
+     * @return the datagram of the slot, between its position and its limit
+     */
+    ByteBuffer datagram(int slot) {
+        return datagrams[slot];
+    }
+
+    /**
+     * @param slot slot returned by {@link #peek()}
+     * @return the sender of the datagram of the slot
+     */
+    SocketAddress source(int slot) {
+        return sources[slot];
+    }
+
+    /**
+     * @param slot slot returned by {@link #peek()}
+     * @return the time of the reception of the datagram of the slot, from System.nanoTime()
+     */
+    long receivedAt(int slot) {
+        return receivedAt[slot];
+    }
+
+    /**
+     * @param slot slot returned by {@link #peek()}
+     * @return the time of the master at the reception of the datagram of the slot, in nanoseconds
+     */
+    long masterTime(int slot) {
+        return masterTimes[slot];
+    }
+
+    /**
+     * Parks the consumer until a datagram is offered, {@link #wakeup()} is called or the timeout elapses
+     * @param timeoutNanos longest time parked, in nanoseconds
+     */
+    void await(long timeoutNanos) {
+        consumer = Thread.currentThread();
+        waiting = true;
+        if (head.get() == tail.get()) {
+            LockSupport.parkNanos(this, timeoutNanos);
+        }
+        waiting = false;
+    }
+
+    /**
+     * Unparks the consumer, if it is parked
+     */
+    void wakeup() {
+        Thread parked = consumer;
+        if (parked != null) {
+            LockSupport.unpark(parked);
+        }
+    }
+}
@@ -1,9 +1,30 @@
 package master;
 
+import clock.MonotonicTimeSource;
+import clock.TimeSource;
+import eventlog.Event;
+import eventlog.EventLog;
+import execution.StoppableTask;
+import execution.TaskGroup;
+import journal.Journal;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsHttpServer;
+import metrics.MetricsRegistry;
 import protocol.Protocol;
+import protocol.ProtocolCodec;
+import protocol.TimestampFormat;
 
-import java.io.*;
+import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -15,17 +36,45 @@ import java.util.logging.Logger;
  *
  * Description:
  * Master is implemented with two threads:
- * - one thread sending the SYNC and FOLLOW_UP messages: {@link SyncSender}
+ * - one thread sending the SYNC and FOLLOW_UP messages, or only SYNCs carrying their time, see {@link SyncMode}:
+ * {@link SyncSender}
  * - one thread listening to DELAY_REQUESTs and replying with DELAY_RESPONSEs: {@link DelayRequestListener}
- * Both of these threads implement {@link Runnable} interface and are launched in the {@link Server} class.
+ * Both of these threads implement {@link Runnable} interface and are launched in the {@link Server} class, through a
+ * {@link TaskGroup}: in virtual threads on Java 21 and later, or in the executor given to
+ * {@link #setExecutor(ExecutorService)}.
  * SYNC and FOLLOW_UP messages are sent to the multicast address via a {@link MulticastSocket}
+ * In unicast mode, for the networks which drop multicast, they are sent instead to each slave registered with a
+ * REGISTER message by the {@link UnicastSyncSender}: the registrations are leases kept in a {@link SubscriberTable},
+ * and every interval all the subscribers are served back to back from a single non-blocking {@link DatagramChannel}.
  * DELAY_RESPONSEs are sent to the DELAY_REQUEST sender via a {@link DatagramSocket}
- * To receive and send data in the UDP packets, {@link ByteArrayInputStream}s and {@link ByteArrayOutputStream} wrapped
- * into the {@link DataInputStream} and {@link DataOutputStream} are used.
+ * The messages are encoded and decoded with a {@link ProtocolCodec} into {@link ByteBuffer}s and
+ * {@link DatagramPacket}s which are allocated once per thread and reused for every packet.
+ * In non-blocking mode the DELAY_REQUESTs are handled by {@link NioDelayRequestListener} instead, which drains all the
+ * ready datagrams of a {@link DatagramChannel} on each {@link Selector} wakeup using direct {@link ByteBuffer}s.
+ * With several workers, a single {@link DelayRequestDispatcher} drains the channel and hands the DELAY_REQUESTs
+ * round-robin to the {@link DelayRequestQueue} of each {@link DelayRequestWorker}, which encodes and sends the
+ * DELAY_RESPONSEs, so that the DELAY_REQUESTs are answered on several cores without the workers contending for the
+ * receive side of the channel.
+ * The master's time is read from a {@link TimeSource} in nanoseconds. It is sent in FOLLOW_UPs with the configured
+ * {@link TimestampFormat} (milliseconds by default, for the existing slaves), and in DELAY_RESPONSEs with the format
+ * of the DELAY_REQUEST answered.
+ * The sync interval is announced in every SYNC. It is fixed by default, with bounds set by
+ * {@link #setSyncIntervalBounds(int, int)} it is adapted by a {@link SyncIntervalController} to the status that the
+ * slaves report in their DELAY_REQUESTs.
+ * The master records its metrics in a {@link MetricsRegistry}: the turnaround between the reception of a DELAY_REQUEST
+ * and the sending of its DELAY_RESPONSE, the number of SYNCs and DELAY_RESPONSEs sent and of unknown commands received,
+ * the DELAY_REQUESTs dropped when the queue of a worker is full and the DELAY_RESPONSEs dropped when the socket
+ * buffer is full, and in unicast mode the registrations, the failed sends and the duration of each fan-out.
+ * The events of the SYNC loop are written to an asynchronous {@link EventLog}, so that no log line is formatted or
+ * written between two timestamps.
+ * The master is stopped by {@link #close()}, which releases its threads and sockets.
+ * Optionally, the timestamps of every SYNC (t1) and DELAY_RESPONSE (t4) sent are appended to a binary {@link Journal}.
  */
-public class Server {
+public class Server implements AutoCloseable {
 
     private static final Logger LOG = Logger.getLogger(Server.class.getName());
+    // gives a unique name to the metrics of each master of the process
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
 
     // SYNC and FOLLOW_UP messages will be sent every timeInterval milliseconds
     private int timeInterval = 2000;
@@ -33,6 +82,54 @@ public class Server {
     private InetAddress group;
     // buffer size for receiving packets
     private static final int BUFFER_SIZE = 256;
+    // time given to the threads to stop by themselves when the master is closed
+    private static final long STOP_GRACE_MILLIS = 1000;
+    // longest lease granted to a unicast slave
+    private static final long MAX_LEASE_MILLIS = 300_000;
+    // if true, DELAY_REQUESTs are handled by the selector-driven NioDelayRequestListener
+    private boolean nonBlocking = false;
+    // number of workers answering the DELAY_REQUESTs, fed by a DelayRequestDispatcher if more than one
+    private int delayWorkers = 1;
+    // DELAY_REQUESTs queued for each worker before the next ones are dropped
+    private static final int DELAY_QUEUE_CAPACITY = 1024;
+    // source of the master's time
+    private TimeSource timeSource = new MonotonicTimeSource();
+    // format of the timestamps carried by the FOLLOW_UP messages
+    private TimestampFormat timestampFormat = TimestampFormat.MILLIS;
+    // one SYNC carrying its time, or a SYNC and a FOLLOW_UP
+    private SyncMode syncMode = SyncMode.TWO_STEP;
+    // adapts the sync interval to the slaves, null if the interval is fixed
+    private SyncIntervalController intervalController;
+    // port to which the SYNCs are sent, and on which the DELAY_REQUESTs are received
+    private int syncPort = 4445;
+    private int delayRequestPort = 4446;
+    // if true, the SYNCs are sent to each registered slave instead of the multicast group
+    private boolean unicast = false;
+    // slaves registered for the unicast SYNCs
+    private final SubscriberTable subscribers = new SubscriberTable(MAX_LEASE_MILLIS);
+    // metrics of the master
+    private final MetricsRegistry metrics = new MetricsRegistry("master-" + INSTANCES.getAndIncrement());
+    private final Histogram turnaround = metrics.histogram("ptp_master_turnaround_nanos");
+    private final Counter syncsSent = metrics.counter("ptp_master_syncs_sent_total");
+    private final Counter syncPacketsSent = metrics.counter("ptp_master_sync_packets_sent_total");
+    private final Counter delayResponsesSent = metrics.counter("ptp_master_delay_responses_sent_total");
+    private final Counter unknownCommands = metrics.counter("ptp_master_unknown_commands_total");
+    private final Counter delayRequestsDropped = metrics.counter("ptp_master_delay_requests_dropped_total");
+    private final Counter delayResponsesDropped = metrics.counter("ptp_master_delay_responses_dropped_total");
+    private final Counter registrations = metrics.counter("ptp_master_registrations_total");
+    private final Counter unicastSendErrors = metrics.counter("ptp_master_unicast_send_errors_total");
+    private final Histogram fanOut = metrics.histogram("ptp_master_fan_out_nanos");
+    // log of the events of the hot paths
+    private final EventLog eventLog = new EventLog(LOG);
+    // binary journal of the timestamps sent, null if disabled
+    private Journal journal;
+    // executor running the threads of the master, null for the default one
+    private ExecutorService executor;
+    // threads of the master, created by start
+    private TaskGroup tasks;
+    // channel receiving the DELAY_REQUESTs in non-blocking mode, null in blocking mode
+    private DatagramChannel delayRequestChannel;
+    private boolean closed = false;
 
     /**
      * Constructor
@@ -55,20 +152,236 @@ public class Server {
         }
     }
 
+    /**
+     * Enables or disables the non-blocking {@link DatagramChannel} engine for the DELAY_REQUESTs
+     * Must be called before {@link #start()}
+     * @param nonBlocking true to use the {@link NioDelayRequestListener}
+     */
+    public void setNonBlocking(boolean nonBlocking) {
+        this.nonBlocking = nonBlocking;
+    }
+
+    /**
+     * Sets the number of workers answering the DELAY_REQUESTs
+     * More than one worker implies the non-blocking mode: a {@link DelayRequestDispatcher} receives the requests and
+     * hands them to the workers, which send the responses through the same {@link DatagramChannel}
+     * Must be called before {@link #start()}
+     * @param delayWorkers number of worker threads, at least 1
+     */
+    public void setDelayWorkers(int delayWorkers) {
+        if (delayWorkers < 1) {
+            throw new IllegalArgumentException("at least one worker is needed: " + delayWorkers);
+        }
+        this.delayWorkers = delayWorkers;
+    }
+
+    /**
+     * Sets the source of the master's time
+     * Must be called before {@link #start()}
+     * @param timeSource time source to use
+     */
+    public void setTimeSource(TimeSource timeSource) {
+        this.timeSource = timeSource;
+    }
+
+    /**
+     * Sets the format of the timestamps sent in the FOLLOW_UP messages
+     * Must be called before {@link #start()}
+     * @param timestampFormat MILLIS for the existing slaves, NANOS for nanosecond resolution
+     */
+    public void setTimestampFormat(TimestampFormat timestampFormat) {
+        this.timestampFormat = timestampFormat;
+    }
+
+    /**
+     * Sets the way the time of the SYNCs is given to the slaves
+     * Must be called before {@link #start()}
+     * @param syncMode TWO_STEP for the existing slaves, ONE_STEP to halve the number of multicast packets
+     */
+    public void setSyncMode(SyncMode syncMode) {
+        this.syncMode = syncMode;
+    }
+
+    /**
+     * Lets the sync interval adapt to the status of the slaves between two bounds, starting from the interval given
+     * to the constructor
+     * Must be called before {@link #start()}
+     * @param minInterval shortest sync interval, in milliseconds
+     * @param maxInterval longest sync interval, in milliseconds
+     */
+    public void setSyncIntervalBounds(int minInterval, int maxInterval) {
+        this.intervalController = new SyncIntervalController(minInterval, maxInterval, timeInterval);
+    }
+
+    /**
+     * Sets the ports of the master, so that several masters can run on the same host, like a boundary clock and the
+     * master it follows
+     * Must be called before {@link #start()}
+     * @param syncPort port to which the SYNC and FOLLOW_UP messages are sent, 4445 by default
+     * @param delayRequestPort port on which the DELAY_REQUESTs and REGISTERs are received, 4446 by default
+     */
+    public void setPorts(int syncPort, int delayRequestPort) {
+        this.syncPort = syncPort;
+        this.delayRequestPort = delayRequestPort;
+    }
+
+    /**
+     * Enables or disables the unicast mode, for the networks which drop multicast
+     * The slaves register with a REGISTER message sent to the DELAY_REQUEST port, and the SYNCs are sent to each of
+     * them by the {@link UnicastSyncSender} instead of the multicast group
+     * Must be called before {@link #start()}
+     * @param unicast true to send the SYNCs to the registered slaves
+     */
+    public void setUnicast(boolean unicast) {
+        this.unicast = unicast;
+    }
+
+    /**
+     * Sets the journal in which the timestamps sent are recorded
+     * Must be called before {@link #start()}
+     * @param journal journal to use, null to disable it
+     */
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets the executor running the threads of the master, it is not shut down with the master
+     * Must be called before {@link #start()}
+     * @param executor executor to use, null for {@link TaskGroup#defaultExecutor()}
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the metrics of the master
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Launches the master
+     */
     public void start() {
-        new Thread(new SyncSender()).start();
-        new Thread(new DelayRequestListener()).start();
+        tasks = new TaskGroup(metrics.getName(), executor);
+        tasks.start("event-log", eventLog);
+        tasks.start("sync-sender", unicast ? new UnicastSyncSender() : new SyncSender(syncPort));
+        if (delayWorkers > 1) {
+            delayRequestChannel = openDelayRequestChannel(delayRequestPort);
+            DelayRequestQueue[] queues = new DelayRequestQueue[delayWorkers];
+            for (int i = 0; i < delayWorkers; i++) {
+                queues[i] = new DelayRequestQueue(DELAY_QUEUE_CAPACITY, BUFFER_SIZE);
+                tasks.start("delay-worker-" + i, new DelayRequestWorker(delayRequestChannel, queues[i]));
+            }
+            tasks.start("delay-dispatcher", new DelayRequestDispatcher(delayRequestChannel, queues));
+        } else if (nonBlocking) {
+            delayRequestChannel = openDelayRequestChannel(delayRequestPort);
+            tasks.start("delay-listener", new NioDelayRequestListener(delayRequestChannel));
+        } else {
+            tasks.start("delay-listener", new DelayRequestListener(delayRequestPort));
+        }
+    }
+
+    /**
+     * Waits until the threads of the master end
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public void join() throws InterruptedException {
+        tasks.join();
     }
 
     /**
-     * {@link SyncSender} class sends the SYNC and FOLLOW_UP messages every timeInterval milliseconds
+     * Stops the master
+     * The threads are asked to stop: the sleep of the {@link SyncSender} is interrupted, the blocking sockets are
+     * closed, the selectors are woken up, the DELAY_REQUESTs already received are answered and the event log formats
+     * the records written. The threads still running after STOP_GRACE_MILLIS are interrupted. Then the sockets are
+     * released and the metrics are unregistered from JMX. The journal is not closed, it belongs to the caller.
+     * A closed master cannot be started again, a new one can be created on the same ports.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed || tasks == null) {
+            return;
+        }
+        closed = true;
+        try {
+            tasks.stop(STOP_GRACE_MILLIS);
+        } catch (InterruptedException e) {
+            LOG.log(Level.SEVERE, e.getMessage(), e);
+            Thread.currentThread().interrupt();
+        }
+        if (delayRequestChannel != null) {
+            try {
+                delayRequestChannel.close();
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, e.getMessage(), e);
+            }
+        }
+        metrics.unregisterJmx();
+    }
+
+    /**
+     * Opens the non-blocking channel on which the DELAY_REQUESTs are received
+     * @param port port of the channel
+     * @return the bound channel, null if it could not be opened
+     */
+    private static DatagramChannel openDelayRequestChannel(int port) {
+        try {
+            DatagramChannel channel = DatagramChannel.open();
+            channel.configureBlocking(false);
+            channel.bind(new InetSocketAddress(port));
+            return channel;
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Passes the status reported by a DELAY_REQUEST to the interval controller
+     * @param codec codec holding the decoded DELAY_REQUEST
+     */
+    private void reportSlaveStatus(ProtocolCodec codec) {
+        if (intervalController != null && codec.hasSlaveStatus()) {
+            intervalController.report(codec.slaveLocked(), codec.slaveJitter());
+        }
+    }
+
+    /**
+     * Subscribes, renews or unsubscribes the slave which sent a REGISTER
+     * @param address address of the slave
+     * @param codec codec holding the decoded REGISTER
+     */
+    private void register(InetAddress address, ProtocolCodec codec) {
+        subscribers.register(new InetSocketAddress(address, codec.registeredPort()), codec.leaseMillis(),
+                System.nanoTime());
+        registrations.increment();
+    }
+
+    /**
+     * Counts a datagram whose handling failed, so that a malformed datagram never ends a listener
+     * @param e exception thrown while handling the datagram
+     */
+    private void malformedDatagram(RuntimeException e) {
+        unknownCommands.increment();
+        LOG.log(Level.SEVERE, e.getMessage(), e);
+    }
+
+    /**
+     * {@link SyncSender} class sends the SYNC and FOLLOW_UP messages every sync interval
      * Works in a separate thread
      */
-    private class SyncSender implements Runnable {
+    private class SyncSender implements StoppableTask {
 
         // id of the SYNC command, generated by SyncSender
         private long id = 0;
-        private boolean shouldRun = true;
+        // last interval announced
+        private int lastInterval = 0;
+        private volatile boolean shouldRun = true;
+        // thread running the sender, interrupted to stop its sleep
+        private volatile Thread thread;
         private int port;
 
         private MulticastSocket socket;
@@ -96,41 +409,225 @@ public class Server {
 
         @Override
         public void run() {
+            thread = Thread.currentThread();
             LOG.log(Level.INFO, () -> Protocol.SYNC.getMessage() + " commands will be sent to " + group);
-            byte[] buffer;
-            DatagramPacket packet;
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            DatagramPacket packet = new DatagramPacket(buffer.array(), 0, group, port);
             while (shouldRun) {
+                int interval = intervalController == null ? timeInterval : intervalController.nextInterval();
                 try {
-                    // sending the SYNC message and id
-                    dataOutputStream.writeInt(Protocol.SYNC.ordinal());
-                    dataOutputStream.writeLong(id);
-                    buffer = byteArrayOutputStream.toByteArray();
-                    packet = new DatagramPacket(buffer, buffer.length, group, port);
-                    long masterTime = System.currentTimeMillis();
-                    socket.send(packet);
-                    LOG.log(Level.INFO, () -> "[" + id + "] MASTER TIME: " + masterTime);
-//                    LOG.log(Level.INFO, () -> "[" + id + "] " + Protocol.SYNC.getMessage() + " sent");
-                    byteArrayOutputStream.reset();
-                    // sending the FOLLOW_UP message and the current time
-                    dataOutputStream.writeInt(Protocol.FOLLOW_UP.ordinal());
-                    dataOutputStream.writeLong(id);
-                    dataOutputStream.writeLong(masterTime);
-                    buffer = byteArrayOutputStream.toByteArray();
-                    packet = new DatagramPacket(buffer, buffer.length, group, port);
-                    socket.send(packet);
-//                    LOG.log(Level.INFO, () -> "[" + id + "] " + Protocol.FOLLOW_UP.getMessage() + " sent");
+                    if (interval != lastInterval) {
+                        eventLog.log(Event.SYNC_INTERVAL, id, interval);
+                        lastInterval = interval;
+                    }
+                    long masterTime;
+                    if (syncMode == SyncMode.ONE_STEP) {
+                        // sending the SYNC message with the current time
+                        masterTime = timeSource.currentTimeNanos();
+                        ProtocolCodec.encodeSyncOneStep(buffer, id, masterTime, interval);
+                        packet.setLength(buffer.limit());
+                        socket.send(packet);
+                        syncPacketsSent.increment();
+                        eventLog.log(Event.MASTER_TIME, id, masterTime);
+                    } else {
+                        // sending the SYNC message and id, the time is taken once it left
+                        ProtocolCodec.encodeSync(buffer, id, interval);
+                        packet.setLength(buffer.limit());
+                        socket.send(packet);
+                        masterTime = timeSource.currentTimeNanos();
+                        eventLog.log(Event.MASTER_TIME, id, masterTime);
+                        // sending the FOLLOW_UP message and the time of the SYNC
+                        ProtocolCodec.encodeFollowUp(buffer, id, masterTime, timestampFormat);
+                        packet.setLength(buffer.limit());
+                        socket.send(packet);
+                        syncPacketsSent.add(2);
+                    }
+                    syncsSent.increment();
+                    if (journal != null) {
+                        journal.append(Journal.SYNC, id, masterTime, 0, 0, 0, 0, 0);
+                    }
                     id++;
-                    byteArrayOutputStream.reset();
-                    // wait timeInterval milliseconds
-                    Thread.sleep(timeInterval);
-                } catch (InterruptedException | IOException e) {
-                    socket.close();
+                } catch (IOException e) {
+                    if (!shouldRun || socket.isClosed()) {
+                        break;
+                    }
                     LOG.log(Level.SEVERE, e.getMessage(), e);
+                }
+                try {
+                    // wait interval milliseconds
+                    Thread.sleep(interval);
+                } catch (InterruptedException e) {
+                    // stopped
                     Thread.currentThread().interrupt();
+                    break;
                 }
             }
+            socket.close();
+        }
+
+        @Override
+        public void stop() {
+            shouldRun = false;
+            Thread current = thread;
+            if (current != null) {
+                current.interrupt();
+            }
+        }
+    }
+
+    /**
+     * {@link UnicastSyncSender} class sends the SYNC and FOLLOW_UP messages to each registered slave every sync
+     * interval, for the networks which drop multicast
+     * Works in a separate thread
+     *
+     * All the datagrams of an interval leave from a single non-blocking {@link DatagramChannel} with a direct buffer:
+     * the SYNCs are sent to every subscriber back to back, each one stamped as soon as it left, then the FOLLOW_UPs
+     * carry the time of the SYNC of their own subscriber. When the socket buffer is full the sender waits on a
+     * {@link Selector} until the channel can be written again, instead of dropping the datagram. In one-step mode
+     * each SYNC carries the time read right before it is sent, no FOLLOW_UP is needed.
+     * A failed send to one subscriber is counted and skipped, it does not stop the fan-out.
+     * The datagrams are not batched in a single system call: Java has no equivalent of sendmmsg, and each SYNC must be
+     * stamped right after its own send, which a batch of SYNCs would only stamp once. Instead the two-step SYNC is
+     * encoded once per interval, and the sends follow each other in a tight loop without allocation.
+     */
+    private class UnicastSyncSender implements StoppableTask {
+
+        // id of the SYNC command, generated by UnicastSyncSender
+        private long id = 0;
+        // last interval announced
+        private int lastInterval = 0;
+        private volatile boolean shouldRun = true;
+        // thread running the sender, interrupted to stop its sleep
+        private volatile Thread thread;
+        private DatagramChannel channel;
+        private Selector selector;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        // time at which the SYNC of each subscriber left, reused from one interval to the next
+        private long[] departures = new long[64];
+
+        /**
+         * Default constructor
+         * The channel is bound to an ephemeral port
+         */
+        UnicastSyncSender() {
+            try {
+                channel = DatagramChannel.open();
+                channel.configureBlocking(false);
+                channel.bind(null);
+                selector = Selector.open();
+                channel.register(selector, SelectionKey.OP_WRITE);
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            LOG.log(Level.INFO, () -> Protocol.SYNC.getMessage() + " commands will be sent to the registered slaves");
+            while (shouldRun) {
+                int interval = intervalController == null ? timeInterval : intervalController.nextInterval();
+                try {
+                    if (interval != lastInterval) {
+                        eventLog.log(Event.SYNC_INTERVAL, id, interval);
+                        lastInterval = interval;
+                    }
+                    long start = System.nanoTime();
+                    int count = subscribers.collect(start);
+                    if (count > 0) {
+                        send(count, interval);
+                        fanOut.record(System.nanoTime() - start);
+                        eventLog.log(Event.MASTER_TIME, id, departures[0]);
+                        syncsSent.increment();
+                        if (journal != null) {
+                            journal.append(Journal.SYNC, id, departures[0], 0, 0, 0, 0, 0);
+                        }
+                    }
+                    id++;
+                } catch (IOException e) {
+                    if (!shouldRun || !channel.isOpen()) {
+                        break;
+                    }
+                    LOG.log(Level.SEVERE, e.getMessage(), e);
+                }
+                try {
+                    // wait interval milliseconds
+                    Thread.sleep(interval);
+                } catch (InterruptedException e) {
+                    // stopped
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            try {
+                selector.close();
+                channel.close();
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Sends the SYNC, and the FOLLOW_UP in two-step mode, of the current id to every subscriber collected
+         * @param count number of subscribers collected
+         * @param interval sync interval announced
+         * @throws IOException if the channel is closed
+         */
+        private void send(int count, int interval) throws IOException {
+            if (departures.length < count) {
+                departures = new long[Math.max(count, 2 * departures.length)];
+            }
+            if (syncMode == SyncMode.ONE_STEP) {
+                for (int i = 0; i < count; i++) {
+                    departures[i] = timeSource.currentTimeNanos();
+                    ProtocolCodec.encodeSyncOneStep(buffer, id, departures[i], interval);
+                    send(subscribers.subscriber(i));
+                }
+            } else {
+                ProtocolCodec.encodeSync(buffer, id, interval);
+                for (int i = 0; i < count; i++) {
+                    buffer.rewind();
+                    send(subscribers.subscriber(i));
+                    departures[i] = timeSource.currentTimeNanos();
+                }
+                for (int i = 0; i < count; i++) {
+                    ProtocolCodec.encodeFollowUp(buffer, id, departures[i], timestampFormat);
+                    send(subscribers.subscriber(i));
+                }
+            }
+        }
+
+        /**
+         * Sends the buffer to a subscriber, waiting while the socket buffer is full
+         * @param subscriber address of the SYNC socket of the subscriber
+         * @throws IOException if the channel is closed
+         */
+        private void send(InetSocketAddress subscriber) throws IOException {
+            try {
+                while (channel.send(buffer, subscriber) == 0) {
+                    selector.select();
+                    selector.selectedKeys().clear();
+                }
+                syncPacketsSent.increment();
+            } catch (ClosedChannelException e) {
+                throw e;
+            } catch (IOException e) {
+                // unreachable subscriber, its lease will end
+                unicastSendErrors.increment();
+            }
+        }
+
+        /**
+         * Interrupts the sleep or the wait of the sender
+         * An interrupt during a send closes the channel, which ends the fan-out
+         */
+        @Override
+        public void stop() {
+            shouldRun = false;
+            Thread current = thread;
+            if (current != null) {
+                current.interrupt();
+            }
         }
     }
 
@@ -138,9 +635,9 @@ public class Server {
      * {@link DelayRequestListener} class accepts and responds the delay requests
      * Works in a separate thread
      */
-    private class DelayRequestListener implements Runnable {
+    private class DelayRequestListener implements StoppableTask {
 
-        private boolean shouldRun = true;
+        private volatile boolean shouldRun = true;
         private DatagramSocket socket;
 
         DelayRequestListener(int port) {
@@ -163,47 +660,363 @@ public class Server {
         @Override
         public void run() {
             LOG.log(Level.INFO, "starting to wait for " + Protocol.DELAY_REQUEST + "s");
-            byte[] buffer = new byte[BUFFER_SIZE];
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-            ByteArrayInputStream byteArrayInputStream;
-            DataInputStream dataInputStream;
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
+            ProtocolCodec codec = new ProtocolCodec();
+            ByteBuffer requestBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+            DatagramPacket packet = new DatagramPacket(requestBuffer.array(), BUFFER_SIZE);
+            ByteBuffer responseBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+            DatagramPacket response = new DatagramPacket(responseBuffer.array(), 0);
             while (shouldRun) {
                 try {
                     // listening for DELAY_REQUESTs
+                    packet.setLength(BUFFER_SIZE);
                     socket.receive(packet);
-                    buffer = packet.getData();
-                    byteArrayInputStream = new ByteArrayInputStream(buffer);
-                    dataInputStream = new DataInputStream(byteArrayInputStream);
-                    int request = dataInputStream.readInt();
-                    if (request == Protocol.DELAY_REQUEST.ordinal()) {
-                        long id = dataInputStream.readLong();
+                    long receivedAt = System.nanoTime();
+                    requestBuffer.clear();
+                    requestBuffer.limit(packet.getLength());
+                    if (codec.decode(requestBuffer) && codec.command() == Protocol.DELAY_REQUEST) {
+                        long id = codec.id();
 //                        LOG.log(Level.INFO, () -> "[" + id + "] " + Protocol.DELAY_REQUEST.getMessage() + " received");
-                        InetAddress clientAddress = packet.getAddress();
-                        int clientPort = packet.getPort();
-                        dataOutputStream.writeInt(Protocol.DELAY_RESPONSE.ordinal());
-                        dataOutputStream.writeLong(id);
-                        dataOutputStream.writeLong(System.currentTimeMillis());
-                        byte[] response = byteArrayOutputStream.toByteArray();
-                        packet = new DatagramPacket(response, response.length, clientAddress, clientPort);
-                        socket.send(packet);
-                        byteArrayOutputStream.reset();
+                        long masterTime = timeSource.currentTimeNanos();
+                        ProtocolCodec.encodeDelayResponse(responseBuffer, id, masterTime, codec.format());
+                        response.setLength(responseBuffer.limit());
+                        response.setAddress(packet.getAddress());
+                        response.setPort(packet.getPort());
+                        socket.send(response);
+                        turnaround.record(System.nanoTime() - receivedAt);
+                        reportSlaveStatus(codec);
+                        delayResponsesSent.increment();
+                        if (journal != null) {
+                            journal.append(Journal.DELAY_RESPONSE, id, 0, 0, 0, masterTime, 0, 0);
+                        }
 //                        LOG.log(Level.INFO, () -> "[" + id + "] " + Protocol.DELAY_RESPONSE.getMessage() + " sent");
+                    } else if (codec.command() == Protocol.REGISTER && unicast) {
+                        register(packet.getAddress(), codec);
                     } else {
+                        unknownCommands.increment();
                         Logger.getLogger(getClass().getName()).log(Level.SEVERE, () -> "Unknown "
                                 + Protocol.DELAY_REQUEST.getMessage());
                     }
                 } catch (IOException e) {
-                    socket.close();
+                    // the socket was closed by stop
+                    if (!shouldRun || socket.isClosed()) {
+                        break;
+                    }
+                    LOG.log(Level.SEVERE, e.getMessage(), e);
+                } catch (RuntimeException e) {
+                    malformedDatagram(e);
+                }
+            }
+            socket.close();
+        }
+
+        /**
+         * Closes the socket, which interrupts the blocking receive
+         */
+        @Override
+        public void stop() {
+            shouldRun = false;
+            if (socket != null) {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * {@link NioDelayRequestListener} class accepts and responds the delay requests through a non-blocking
+     * {@link DatagramChannel}. Every wakeup of the {@link Selector} drains all the pending datagrams, the master time
+     * is taken as soon as each request is read so that it does not depend on the length of the queue.
+     * The direct buffers are reused for every packet.
+     * The channel is closed by the {@link Server} once the listener stopped.
+     * Works in a separate thread
+     */
+    private class NioDelayRequestListener implements StoppableTask {
+
+        private volatile boolean shouldRun = true;
+        private DatagramChannel channel;
+        private Selector selector;
+        private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final ProtocolCodec codec = new ProtocolCodec();
+
+        /**
+         * Constructor
+         * @param channel bound non-blocking channel receiving the DELAY_REQUESTs
+         */
+        NioDelayRequestListener(DatagramChannel channel) {
+            this.channel = channel;
+            try {
+                selector = Selector.open();
+                channel.register(selector, SelectionKey.OP_READ);
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void run() {
+            LOG.log(Level.INFO, "starting to wait for " + Protocol.DELAY_REQUEST + "s on "
+                    + Thread.currentThread().getName() + " (non-blocking)");
+            while (shouldRun) {
+                try {
+                    selector.select();
+                    selector.selectedKeys().clear();
+                    drain();
+                } catch (IOException e) {
+                    if (!channel.isOpen()) {
+                        break;
+                    }
+                    LOG.log(Level.SEVERE, e.getMessage(), e);
+                }
+            }
+            try {
+                // answers the requests received before the stop
+                if (channel.isOpen()) {
+                    drain();
+                }
+                selector.close();
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Wakes up the selector, the requests already received are answered before the end of the thread
+         */
+        @Override
+        public void stop() {
+            shouldRun = false;
+            if (selector != null) {
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Reads and answers every DELAY_REQUEST available on the channel
+         * @throws IOException if the channel fails
+         */
+        private void drain() throws IOException {
+            SocketAddress clientAddress;
+            while ((clientAddress = channel.receive(receiveBuffer)) != null) {
+                long receivedAt = System.nanoTime();
+                long masterTime = timeSource.currentTimeNanos();
+                receiveBuffer.flip();
+                try {
+                    answer(channel, codec, receiveBuffer, sendBuffer, clientAddress, receivedAt, masterTime);
+                } finally {
+                    receiveBuffer.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * {@link DelayRequestDispatcher} class receives the DELAY_REQUESTs when several workers answer them
+     * It drains the non-blocking {@link DatagramChannel} on each {@link Selector} wakeup, takes the master time as soon
+     * as each request is read, and hands the requests round-robin to the {@link DelayRequestQueue} of each
+     * {@link DelayRequestWorker}. A request is dropped and counted when the queue of its worker is full.
+     * Works in a separate thread
+     */
+    private class DelayRequestDispatcher implements StoppableTask {
+
+        private volatile boolean shouldRun = true;
+        private final DatagramChannel channel;
+        private final DelayRequestQueue[] queues;
+        private Selector selector;
+        private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        // queue of the next request received
+        private int next = 0;
+
+        /**
+         * Constructor
+         * @param channel bound non-blocking channel receiving the DELAY_REQUESTs
+         * @param queues queues of the workers
+         */
+        DelayRequestDispatcher(DatagramChannel channel, DelayRequestQueue[] queues) {
+            this.channel = channel;
+            this.queues = queues;
+            try {
+                selector = Selector.open();
+                channel.register(selector, SelectionKey.OP_READ);
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void run() {
+            LOG.log(Level.INFO, "starting to dispatch " + Protocol.DELAY_REQUEST + "s to " + queues.length
+                    + " workers");
+            while (shouldRun) {
+                try {
+                    selector.select();
+                    selector.selectedKeys().clear();
+                    dispatch();
+                } catch (IOException e) {
+                    if (!channel.isOpen()) {
+                        break;
+                    }
+                    LOG.log(Level.SEVERE, e.getMessage(), e);
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Wakes up the selector
+         */
+        @Override
+        public void stop() {
+            shouldRun = false;
+            if (selector != null) {
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Reads every datagram available on the channel and hands it to a worker
+         * @throws IOException if the channel fails
+         */
+        private void dispatch() throws IOException {
+            SocketAddress clientAddress;
+            while ((clientAddress = channel.receive(receiveBuffer)) != null) {
+                long receivedAt = System.nanoTime();
+                long masterTime = timeSource.currentTimeNanos();
+                receiveBuffer.flip();
+                if (!queues[next].offer(receiveBuffer, clientAddress, receivedAt, masterTime)) {
+                    delayRequestsDropped.increment();
+                }
+                next = next + 1 == queues.length ? 0 : next + 1;
+                receiveBuffer.clear();
+            }
+        }
+    }
+
+    /**
+     * {@link DelayRequestWorker} class answers the DELAY_REQUESTs handed by the {@link DelayRequestDispatcher}
+     * It sends the DELAY_RESPONSEs through the channel of the dispatcher, which only takes the send side of the
+     * channel, and parks while its {@link DelayRequestQueue} is empty. The requests already queued are answered
+     * before the end of the thread.
+     * Works in a separate thread
+     */
+    private class DelayRequestWorker implements StoppableTask {
+
+        // longest time parked, the stop does not depend on it
+        private static final long PARK_NANOS = 100_000_000L;
+
+        private volatile boolean shouldRun = true;
+        private final DatagramChannel channel;
+        private final DelayRequestQueue queue;
+        private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final ProtocolCodec codec = new ProtocolCodec();
+
+        /**
+         * Constructor
+         * @param channel channel through which the DELAY_RESPONSEs are sent
+         * @param queue queue of the requests handed to the worker
+         */
+        DelayRequestWorker(DatagramChannel channel, DelayRequestQueue queue) {
+            this.channel = channel;
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            LOG.log(Level.INFO, "starting to answer " + Protocol.DELAY_REQUEST + "s on "
+                    + Thread.currentThread().getName());
+            while (true) {
+                int slot = queue.peek();
+                if (slot < 0) {
+                    if (!shouldRun) {
+                        break;
+                    }
+                    queue.await(PARK_NANOS);
+                    continue;
+                }
+                try {
+                    answer(channel, codec, queue.datagram(slot), sendBuffer, queue.source(slot),
+                            queue.receivedAt(slot), queue.masterTime(slot));
+                } catch (IOException e) {
+                    if (!channel.isOpen()) {
+                        break;
+                    }
                     LOG.log(Level.SEVERE, e.getMessage(), e);
+                } finally {
+                    queue.release();
                 }
             }
         }
+
+        /**
+         * Unparks the worker, the requests already queued are answered before the end of the thread
+         */
+        @Override
+        public void stop() {
+            shouldRun = false;
+            queue.wakeup();
+        }
+    }
+
+    /**
+     * Answers a DELAY_REQUEST, or handles a REGISTER, received on the non-blocking channel
+     * A malformed datagram is counted, it does not end the calling thread
+     * @param channel channel through which the DELAY_RESPONSE is sent
+     * @param codec codec of the calling thread
+     * @param datagram received datagram, between its position and its limit
+     * @param sendBuffer buffer of the calling thread in which the DELAY_RESPONSE is encoded
+     * @param clientAddress sender of the datagram
+     * @param receivedAt time of the reception, from System.nanoTime()
+     * @param masterTime time of the master at the reception, in nanoseconds
+     * @throws IOException if the channel fails
+     */
+    private void answer(DatagramChannel channel, ProtocolCodec codec, ByteBuffer datagram, ByteBuffer sendBuffer,
+                        SocketAddress clientAddress, long receivedAt, long masterTime) throws IOException {
+        try {
+            if (codec.decode(datagram) && codec.command() == Protocol.DELAY_REQUEST) {
+                ProtocolCodec.encodeDelayResponse(sendBuffer, codec.id(), masterTime, codec.format());
+                // the non-blocking channel sends nothing when the socket buffer is full, the slave will retry
+                if (channel.send(sendBuffer, clientAddress) == 0) {
+                    delayResponsesDropped.increment();
+                    return;
+                }
+                turnaround.record(System.nanoTime() - receivedAt);
+                reportSlaveStatus(codec);
+                delayResponsesSent.increment();
+                if (journal != null) {
+                    journal.append(Journal.DELAY_RESPONSE, codec.id(), 0, 0, 0, masterTime, 0, 0);
+                }
+            } else if (codec.command() == Protocol.REGISTER && unicast) {
+                register(((InetSocketAddress) clientAddress).getAddress(), codec);
+            } else {
+                unknownCommands.increment();
+                LOG.log(Level.SEVERE, () -> "Unknown " + Protocol.DELAY_REQUEST.getMessage());
+            }
+        } catch (RuntimeException e) {
+            malformedDatagram(e);
+        }
     }
 
-    public static void main(String[] args) {
-        new Server().start();
+    /**
+     * Launches a master
+     * @param args optional HTTP port on which the metrics are served (0 for none), optional directory of the journal
+     * (empty for none), optional "unicast" to send the SYNCs to the registered slaves
+     * @throws IOException if the metrics port cannot be bound or the journal cannot be created
+     * @throws InterruptedException if the main thread is interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Server server = new Server();
+        if (args.length > 1 && !args[1].isEmpty()) {
+            server.setJournal(new Journal(Paths.get(args[1]), "master"));
+        }
+        server.setUnicast(args.length > 2 && "unicast".equals(args[2]));
+        server.start();
+        if (args.length > 0 && Integer.parseInt(args[0]) > 0) {
+            MetricsHttpServer.expose(server.getMetrics(), Integer.parseInt(args[0]));
+        }
+        server.join();
     }
 
 }
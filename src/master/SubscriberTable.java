@@ -0,0 +1,87 @@
+package master;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keeps the slaves subscribed to the unicast SYNCs of the master
+ *
+ * Description:
+ * A slave subscribes with a REGISTER message giving the port of its SYNC socket and the duration of its lease, and
+ * renews it before the end of the lease. A subscription whose lease is over is removed, a REGISTER with a lease of 0
+ * removes it at once.
+ * The subscriptions are written by the DELAY_REQUEST listeners and read once per sync interval by the SYNC sender:
+ * {@link #collect(long)} copies the live subscribers into an array reused from one interval to the next, which the
+ * sender then walks without locking the table.
+ */
+public class SubscriberTable {
+
+    private final long maxLeaseNanos;
+    // end of the lease of each subscriber, from System.nanoTime()
+    private final Map<InetSocketAddress, Long> leases = new ConcurrentHashMap<>();
+    // live subscribers collected by the SYNC sender
+    private InetSocketAddress[] subscribers = new InetSocketAddress[64];
+
+    /**
+     * Constructor
+     * @param maxLeaseMillis longest lease granted, in milliseconds
+     */
+    public SubscriberTable(long maxLeaseMillis) {
+        this.maxLeaseNanos = maxLeaseMillis * 1_000_000L;
+    }
+
+    /**
+     * Subscribes, renews or unsubscribes a slave
+     * @param address address of the SYNC socket of the slave
+     * @param leaseMillis duration of the lease, in milliseconds, 0 to unsubscribe
+     * @param now current time, from {@link System#nanoTime()}
+     */
+    public void register(InetSocketAddress address, int leaseMillis, long now) {
+        if (leaseMillis <= 0) {
+            leases.remove(address);
+        } else {
+            leases.put(address, now + Math.min(maxLeaseNanos, leaseMillis * 1_000_000L));
+        }
+    }
+
+    /**
+     * Removes the subscribers whose lease is over and collects the other ones
+     * Must be called by a single thread, the SYNC sender
+     * @param now current time, from {@link System#nanoTime()}
+     * @return the number of subscribers collected, read with {@link #subscriber(int)}
+     */
+    public int collect(long now) {
+        int count = 0;
+        for (Iterator<Map.Entry<InetSocketAddress, Long>> it = leases.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<InetSocketAddress, Long> entry = it.next();
+            if (entry.getValue() - now < 0) {
+                it.remove();
+            } else {
+                if (count == subscribers.length) {
+                    subscribers = Arrays.copyOf(subscribers, 2 * count);
+                }
+                subscribers[count++] = entry.getKey();
+            }
+        }
+        Arrays.fill(subscribers, count, subscribers.length, null);
+        return count;
+    }
+
+    /**
+     * @param index index of a subscriber collected by the last {@link #collect(long)}
+     * @return the address of its SYNC socket
+     */
+    public InetSocketAddress subscriber(int index) {
+        return subscribers[index];
+    }
+
+    /**
+     * @return the number of subscriptions, including the ones not yet removed after the end of their lease
+     */
+    public int size() {
+        return leases.size();
+    }
+}
@@ -0,0 +1,109 @@
+package master;
+
+/**
+ * This class adapts the sync interval of the master to the status reported by the slaves
+ *
+ * Description:
+ * The slaves report in their DELAY_REQUESTs whether they are locked and the jitter of their offsets. Before every SYNC
+ * the SyncSender of the {@link Server} asks for the next interval:
+ * - if a slave reported being unlocked or a jitter above highJitter since the last SYNC, the interval is halved, so
+ * that the slaves get more samples while the network is noisy or while they converge
+ * - if the slaves reported only locked states with a jitter below lowJitter during quietSyncs SYNCs in a row, the
+ * interval grows by a quarter, so that a quiet network carries less multicast traffic
+ * - otherwise it stays the same
+ * The interval always stays between the configured bounds, it is announced to the slaves in every SYNC.
+ * The reports come from the DELAY_REQUEST listeners, the interval is read by the SYNC sender: the methods are
+ * synchronized.
+ */
+public class SyncIntervalController {
+
+    private final int minInterval;
+    private final int maxInterval;
+    private final long lowJitter;
+    private final long highJitter;
+    private final int quietSyncs;
+
+    private int interval;
+    // reports received since the last SYNC
+    private int reports = 0;
+    private boolean noisy = false;
+    private boolean quiet = true;
+    // number of SYNCs in a row with only quiet reports
+    private int quietCount = 0;
+
+    /**
+     * Constructor
+     * @param minInterval shortest sync interval, in milliseconds
+     * @param maxInterval longest sync interval, in milliseconds
+     * @param initialInterval first sync interval, in milliseconds, bounded by the two others
+     * @param lowJitter jitter below which a locked slave is quiet, in nanoseconds
+     * @param highJitter jitter above which a slave is noisy, in nanoseconds
+     * @param quietSyncs number of quiet SYNCs in a row before the interval grows
+     */
+    public SyncIntervalController(int minInterval, int maxInterval, int initialInterval, long lowJitter,
+                                  long highJitter, int quietSyncs) {
+        if (minInterval < 1 || maxInterval < minInterval) {
+            throw new IllegalArgumentException("invalid interval bounds: " + minInterval + ", " + maxInterval);
+        }
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.lowJitter = lowJitter;
+        this.highJitter = highJitter;
+        this.quietSyncs = quietSyncs;
+        this.interval = Math.max(minInterval, Math.min(maxInterval, initialInterval));
+    }
+
+    /**
+     * Constructor
+     * Quiet below 20 us of jitter during 8 SYNCs, noisy above 100 us
+     * @param minInterval shortest sync interval, in milliseconds
+     * @param maxInterval longest sync interval, in milliseconds
+     * @param initialInterval first sync interval, in milliseconds, bounded by the two others
+     */
+    public SyncIntervalController(int minInterval, int maxInterval, int initialInterval) {
+        this(minInterval, maxInterval, initialInterval, 20_000L, 100_000L, 8);
+    }
+
+    /**
+     * Records the status reported by a slave
+     * @param locked true if the slave is locked on the master
+     * @param jitter jitter of the offsets of the slave, in nanoseconds
+     */
+    public synchronized void report(boolean locked, long jitter) {
+        reports++;
+        if (!locked || jitter > highJitter) {
+            noisy = true;
+        }
+        if (!locked || jitter > lowJitter) {
+            quiet = false;
+        }
+    }
+
+    /**
+     * Computes the interval until the next SYNC from the reports received since the last one
+     * @return the sync interval, in milliseconds
+     */
+    public synchronized int nextInterval() {
+        if (noisy) {
+            interval = Math.max(minInterval, interval / 2);
+            quietCount = 0;
+        } else if (reports > 0) {
+            quietCount = quiet ? quietCount + 1 : 0;
+            if (quietCount >= quietSyncs) {
+                interval = Math.min(maxInterval, interval + interval / 4 + 1);
+                quietCount = 0;
+            }
+        }
+        reports = 0;
+        noisy = false;
+        quiet = true;
+        return interval;
+    }
+
+    /**
+     * @return the current sync interval, in milliseconds
+     */
+    public synchronized int interval() {
+        return interval;
+    }
+}
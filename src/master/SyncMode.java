@@ -0,0 +1,13 @@
+package master;
+
+/**
+ * This enumeration lists the ways the master gives the time of its SYNC messages
+ * - TWO_STEP: the SYNC is sent, then the master's time taken once the send completed is sent in a FOLLOW_UP, two
+ * packets per sync interval, understood by every slave
+ * - ONE_STEP: the master's time is taken right before the send and carried by the SYNC itself (SYNC_ONE_STEP), one
+ * packet per sync interval, understood by the slaves which know this command
+ */
+public enum SyncMode {
+    TWO_STEP,
+    ONE_STEP
+}
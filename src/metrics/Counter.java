@@ -0,0 +1,40 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts events, it can be incremented by several threads without allocating or locking
+ */
+public class Counter implements CounterMXBean {
+
+    private final String name;
+    private final LongAdder value = new LongAdder();
+
+    /**
+     * Constructor
+     * @param name name of the counter
+     */
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public void increment() {
+        value.increment();
+    }
+
+    /**
+     * @param delta number of events to add
+     */
+    public void add(long delta) {
+        value.add(delta);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getValue() {
+        return value.sum();
+    }
+}
@@ -0,0 +1,9 @@
+package metrics;
+
+/**
+ * JMX view of a {@link Counter}
+ */
+public interface CounterMXBean {
+
+    long getValue();
+}
@@ -0,0 +1,134 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class records the distribution of non-negative values, like HdrHistogram, without allocating or locking
+ *
+ * Description:
+ * The values are counted in log-linear buckets: the values below 64 have their own bucket, above each power of two is
+ * split in 64 buckets of the same width. The relative error of a recorded value is thus below 1/64 (1.6%) over the
+ * whole range of a long, with less than 4000 buckets allocated once in an {@link AtomicLongArray}.
+ * Negative values are recorded as their absolute value. The percentiles give the upper bound of the bucket which
+ * contains the requested rank.
+ */
+public class Histogram implements HistogramMXBean {
+
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Constructor
+     * @param name name of the histogram
+     */
+    Histogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records a value
+     * @param value value to record, negative values are recorded as their absolute value
+     */
+    public void record(long value) {
+        long magnitude = value == Long.MIN_VALUE ? Long.MAX_VALUE : Math.abs(value);
+        counts.incrementAndGet(index(magnitude));
+        count.incrementAndGet();
+        sum.addAndGet(magnitude);
+        long currentMax;
+        while (magnitude > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, magnitude)) {
+                break;
+            }
+        }
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int highestBit = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int shift = highestBit - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        long bound = ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+        // the last bucket of the range would overflow
+        return bound < 0 ? Long.MAX_VALUE : bound;
+    }
+
+    /**
+     * Computes a percentile
+     * @param percentile percentile wanted, between 0 and 100
+     * @return the value below which the percentile of the recorded values are, 0 if nothing was recorded
+     */
+    public long percentile(double percentile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public long getMax() {
+        return max.get();
+    }
+
+    @Override
+    public double getMean() {
+        long total = count.get();
+        return total == 0 ? 0 : (double) sum.get() / total;
+    }
+
+    @Override
+    public long getP50() {
+        return percentile(50);
+    }
+
+    @Override
+    public long getP90() {
+        return percentile(90);
+    }
+
+    @Override
+    public long getP99() {
+        return percentile(99);
+    }
+
+    @Override
+    public long getP999() {
+        return percentile(99.9);
+    }
+}
@@ -0,0 +1,21 @@
+package metrics;
+
+/**
+ * JMX view of a {@link Histogram}
+ */
+public interface HistogramMXBean {
+
+    long getCount();
+
+    long getMax();
+
+    double getMean();
+
+    long getP50();
+
+    long getP90();
+
+    long getP99();
+
+    long getP999();
+}
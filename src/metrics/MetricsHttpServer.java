@@ -0,0 +1,80 @@
+package metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class serves the metrics of one or several {@link MetricsRegistry}s as plain text on a local HTTP port
+ * GET /metrics returns the concatenation of the {@link MetricsRegistry#scrape()} of the registries.
+ */
+public class MetricsHttpServer {
+
+    private final HttpServer server;
+    private final List<MetricsRegistry> registries = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructor, the server listens on the loopback address
+     * @param port HTTP port, 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public MetricsHttpServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            StringBuilder body = new StringBuilder();
+            for (MetricsRegistry registry : registries) {
+                body.append(registry.scrape());
+            }
+            byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(bytes);
+            }
+        });
+    }
+
+    /**
+     * Registers a registry in JMX and serves it on a new started {@link MetricsHttpServer}
+     * @param registry registry to expose
+     * @param port HTTP port, 0 for any free port
+     * @return the server started
+     * @throws IOException if the port cannot be bound
+     */
+    public static MetricsHttpServer expose(MetricsRegistry registry, int port) throws IOException {
+        registry.registerJmx();
+        MetricsHttpServer server = new MetricsHttpServer(port);
+        server.add(registry);
+        server.start();
+        return server;
+    }
+
+    /**
+     * Adds a registry to the ones served
+     * @param registry registry to serve
+     */
+    public void add(MetricsRegistry registry) {
+        registries.add(registry);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * @return the port the server listens to
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+}
@@ -0,0 +1,132 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class holds the metrics of a master or of a slave
+ *
+ * Description:
+ * The {@link Counter}s and {@link Histogram}s are created once, when the component is built, and kept in fields by the
+ * threads which update them, so recording is never more than an atomic operation on a preallocated structure.
+ * The registry exposes its metrics:
+ * - through JMX, as one MXBean per metric named ptp:type=Counter|Histogram,registry=...,name=...
+ * - as plain text for a scraper ({@link #scrape()}, served by {@link MetricsHttpServer}), in the text format of
+ * Prometheus, the histograms being summaries with their count, mean, max and quantiles
+ */
+public class MetricsRegistry {
+
+    private static final Logger LOG = Logger.getLogger(MetricsRegistry.class.getName());
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] QUANTILE_LABELS = {"0.5", "0.9", "0.99", "0.999"};
+
+    private final String name;
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private final Map<String, ObjectName> registered = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     * @param name name of the registry, unique in the process (master, slave-0...)
+     */
+    public MetricsRegistry(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Gives the counter of the given name, created on the first call
+     * @param metric name of the counter
+     * @return the counter
+     */
+    public Counter counter(String metric) {
+        return counters.computeIfAbsent(metric, Counter::new);
+    }
+
+    /**
+     * Gives the histogram of the given name, created on the first call
+     * @param metric name of the histogram
+     * @return the histogram
+     */
+    public Histogram histogram(String metric) {
+        return histograms.computeIfAbsent(metric, Histogram::new);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Registers every metric of the registry in the platform MBean server
+     */
+    public void registerJmx() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (Counter counter : counters.values()) {
+                register(server, "Counter", counter.getName(), counter);
+            }
+            for (Histogram histogram : histograms.values()) {
+                register(server, "Histogram", histogram.getName(), histogram);
+            }
+        } catch (JMException e) {
+            LOG.log(Level.SEVERE, e.getMessage(), e);
+        }
+    }
+
+    private void register(MBeanServer server, String type, String metric, Object bean) throws JMException {
+        ObjectName objectName = new ObjectName("ptp:type=" + type + ",registry=" + ObjectName.quote(name)
+                + ",name=" + ObjectName.quote(metric));
+        if (registered.putIfAbsent(metric, objectName) == null) {
+            server.registerMBean(bean, objectName);
+        }
+    }
+
+    /**
+     * Unregisters the metrics registered by {@link #registerJmx()}
+     */
+    public void unregisterJmx() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : registered.values()) {
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException e) {
+                LOG.log(Level.WARNING, e.getMessage(), e);
+            }
+        }
+        registered.clear();
+    }
+
+    /**
+     * @return the metrics in the text format of Prometheus, labelled with the name of the registry
+     */
+    public String scrape() {
+        StringBuilder builder = new StringBuilder();
+        String label = "registry=\"" + name + "\"";
+        for (Counter counter : counters.values()) {
+            builder.append("# TYPE ").append(counter.getName()).append(" counter\n");
+            builder.append(counter.getName()).append('{').append(label).append("} ").append(counter.getValue())
+                    .append('\n');
+        }
+        for (Histogram histogram : histograms.values()) {
+            String metric = histogram.getName();
+            builder.append("# TYPE ").append(metric).append(" summary\n");
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                builder.append(metric).append('{').append(label).append(",quantile=\"").append(QUANTILE_LABELS[i])
+                        .append("\"} ").append(histogram.percentile(PERCENTILES[i])).append('\n');
+            }
+            builder.append(metric).append("_count{").append(label).append("} ").append(histogram.getCount())
+                    .append('\n');
+            builder.append(metric).append("_mean{").append(label).append("} ").append(histogram.getMean())
+                    .append('\n');
+            builder.append(metric).append("_max{").append(label).append("} ").append(histogram.getMax())
+                    .append('\n');
+        }
+        return builder.toString();
+    }
+}
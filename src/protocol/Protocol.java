@@ -4,6 +4,10 @@ package protocol;
  * This class contains constants for the communication protocol between the master and the slaves
  * Defines all the commands which are sent and received by the master and the slaves
  * These commands are sent as integers (enumeration's ordinals)
+ * The _NS commands carry nanosecond timestamps (see {@link TimestampFormat}), they are appended at the end so that the
+ * ordinals of the original commands do not change
+ * SYNC_ONE_STEP is a SYNC carrying the master's time itself, in nanoseconds, it is not followed by a FOLLOW_UP
+ * REGISTER is sent by a slave to subscribe to the unicast SYNCs of the master, or to unsubscribe with a lease of 0
  *
  * @author Samuel Mayor, Alexandra Korukova
  */
@@ -11,7 +15,12 @@ public enum Protocol {
     SYNC("SYNC"),
     FOLLOW_UP("FOLLOW_UP"),
     DELAY_REQUEST("DELAY_REQUEST"),
-    DELAY_RESPONSE("DELAY_RESPONSE");
+    DELAY_RESPONSE("DELAY_RESPONSE"),
+    FOLLOW_UP_NS("FOLLOW_UP_NS"),
+    DELAY_REQUEST_NS("DELAY_REQUEST_NS"),
+    DELAY_RESPONSE_NS("DELAY_RESPONSE_NS"),
+    SYNC_ONE_STEP("SYNC_ONE_STEP"),
+    REGISTER("REGISTER");
 
     private final String message;
 
@@ -0,0 +1,328 @@
+package protocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class encodes and decodes the messages of the {@link Protocol} without allocating
+ *
+ * Description:
+ * The encode methods write a whole message into a reused {@link ByteBuffer}: the buffer is cleared, filled and flipped,
+ * so it is ready to be sent. The layout is the same as the one of {@link java.io.DataOutputStream} (big-endian):
+ * - the command is sent as an integer (enumeration's ordinal)
+ * - the id of the message is sent as a long
+ * - FOLLOW_UP and DELAY_RESPONSE messages carry the master's time, either as a long counting milliseconds or, with the
+ * _NS commands, as a long counting seconds and an int counting nanoseconds (see {@link TimestampFormat})
+ * - SYNC_ONE_STEP messages carry the master's time as a long counting seconds and an int counting nanoseconds
+ * - REGISTER messages carry the port on which the slave receives the SYNCs and the duration of its lease in
+ * milliseconds, as two ints
+ * Two optional trailers are appended after these fields, the decoders which do not know them ignore the extra bytes:
+ * - SYNC and SYNC_ONE_STEP: the sync interval of the master, as an int counting milliseconds
+ * - DELAY_REQUEST: the status of the slave, as an int of flags ({@link #STATUS_LOCKED}) and a long counting the jitter
+ * of its offsets in nanoseconds
+ * The timestamps given to and returned by the codec always count nanoseconds since the epoch, the conversion to the
+ * format of the wire is done here. A received timestamp whose nanoseconds are not within a second is rejected.
+ * A {@link ProtocolCodec} instance is a flyweight reader: {@link #decode(ByteBuffer)} reads a received message and
+ * keeps its fields until the next call, they are accessed with {@link #command()}, {@link #id()},
+ * {@link #timestamp()}, {@link #format()} and the trailers. The _NS commands are reported as their millisecond
+ * counterparts, {@link #format()} tells which one was received. An instance must not be shared between threads.
+ */
+public final class ProtocolCodec {
+
+    /**
+     * Flag of the slave status: the clock of the slave is locked on the master
+     */
+    public static final int STATUS_LOCKED = 1;
+
+    private static final int MAX_PORT = 0xffff;
+
+    // cached copy of Protocol.values(), which allocates a new array on each call
+    private static final Protocol[] COMMANDS = Protocol.values();
+
+    private int commandNumber;
+    private Protocol command;
+    private TimestampFormat format;
+    private long id;
+    private long timestamp;
+    private int syncInterval;
+    private int registeredPort;
+    private int leaseMillis;
+    private boolean hasSlaveStatus;
+    private int slaveStatus;
+    private long slaveJitter;
+
+    /**
+     * Encodes a SYNC message
+     * @param buffer buffer to fill
+     * @param id id of the SYNC
+     */
+    public static void encodeSync(ByteBuffer buffer, long id) {
+        encode(buffer, Protocol.SYNC, id);
+        buffer.flip();
+    }
+
+    /**
+     * Encodes a SYNC message announcing the sync interval
+     * @param buffer buffer to fill
+     * @param id id of the SYNC
+     * @param syncInterval sync interval of the master, in milliseconds
+     */
+    public static void encodeSync(ByteBuffer buffer, long id, int syncInterval) {
+        encode(buffer, Protocol.SYNC, id);
+        buffer.putInt(syncInterval);
+        buffer.flip();
+    }
+
+    /**
+     * Encodes a one-step SYNC message, carrying the time of its own sending
+     * @param buffer buffer to fill
+     * @param id id of the SYNC
+     * @param masterTime time of the master when the SYNC is sent, in nanoseconds
+     * @param syncInterval sync interval of the master, in milliseconds
+     */
+    public static void encodeSyncOneStep(ByteBuffer buffer, long id, long masterTime, int syncInterval) {
+        encode(buffer, Protocol.SYNC_ONE_STEP, id);
+        putTimestamp(buffer, masterTime, TimestampFormat.NANOS);
+        buffer.putInt(syncInterval);
+        buffer.flip();
+    }
+
+    /**
+     * Encodes a FOLLOW_UP message
+     * @param buffer buffer to fill
+     * @param id id of the SYNC followed
+     * @param masterTime time of the master when the SYNC was sent, in nanoseconds
+     * @param format format of the timestamp on the wire
+     */
+    public static void encodeFollowUp(ByteBuffer buffer, long id, long masterTime, TimestampFormat format) {
+        encode(buffer, format == TimestampFormat.NANOS ? Protocol.FOLLOW_UP_NS : Protocol.FOLLOW_UP, id);
+        putTimestamp(buffer, masterTime, format);
+        buffer.flip();
+    }
+
+    /**
+     * Encodes a DELAY_REQUEST message
+     * @param buffer buffer to fill
+     * @param id id of the request
+     * @param format format of the timestamp expected in the DELAY_RESPONSE
+     */
+    public static void encodeDelayRequest(ByteBuffer buffer, long id, TimestampFormat format) {
+        encode(buffer, format == TimestampFormat.NANOS ? Protocol.DELAY_REQUEST_NS : Protocol.DELAY_REQUEST, id);
+        buffer.flip();
+    }
+
+    /**
+     * Encodes a DELAY_REQUEST message reporting the status of the slave
+     * @param buffer buffer to fill
+     * @param id id of the request
+     * @param format format of the timestamp expected in the DELAY_RESPONSE
+     * @param status flags of the slave status, see {@link #STATUS_LOCKED}
+     * @param jitter jitter of the offsets of the slave, in nanoseconds
+     */
+    public static void encodeDelayRequest(ByteBuffer buffer, long id, TimestampFormat format, int status,
+                                          long jitter) {
+        encode(buffer, format == TimestampFormat.NANOS ? Protocol.DELAY_REQUEST_NS : Protocol.DELAY_REQUEST, id);
+        buffer.putInt(status);
+        buffer.putLong(jitter);
+        buffer.flip();
+    }
+
+    /**
+     * Encodes a REGISTER message
+     * @param buffer buffer to fill
+     * @param id id of the registration
+     * @param port port on which the slave receives the SYNCs
+     * @param leaseMillis duration of the subscription, in milliseconds, 0 to unsubscribe
+     */
+    public static void encodeRegister(ByteBuffer buffer, long id, int port, int leaseMillis) {
+        encode(buffer, Protocol.REGISTER, id);
+        buffer.putInt(port);
+        buffer.putInt(leaseMillis);
+        buffer.flip();
+    }
+
+    /**
+     * Encodes a DELAY_RESPONSE message
+     * @param buffer buffer to fill
+     * @param id id of the request answered
+     * @param masterTime time of the master when the request was received, in nanoseconds
+     * @param format format of the timestamp on the wire, the one of the request
+     */
+    public static void encodeDelayResponse(ByteBuffer buffer, long id, long masterTime, TimestampFormat format) {
+        encode(buffer, format == TimestampFormat.NANOS ? Protocol.DELAY_RESPONSE_NS : Protocol.DELAY_RESPONSE, id);
+        putTimestamp(buffer, masterTime, format);
+        buffer.flip();
+    }
+
+    private static void encode(ByteBuffer buffer, Protocol command, long id) {
+        buffer.clear();
+        buffer.putInt(command.ordinal());
+        buffer.putLong(id);
+    }
+
+    private static void putTimestamp(ByteBuffer buffer, long nanos, TimestampFormat format) {
+        if (format == TimestampFormat.NANOS) {
+            buffer.putLong(Math.floorDiv(nanos, Timestamps.NANOS_PER_SECOND));
+            buffer.putInt((int) Math.floorMod(nanos, Timestamps.NANOS_PER_SECOND));
+        } else {
+            buffer.putLong(Timestamps.toMillis(nanos));
+        }
+    }
+
+    /**
+     * Decodes the message between the position and the limit of the buffer
+     * @param buffer buffer containing a received message
+     * @return true if the message is a known and complete command with valid fields, false otherwise
+     */
+    public boolean decode(ByteBuffer buffer) {
+        command = null;
+        commandNumber = -1;
+        syncInterval = 0;
+        hasSlaveStatus = false;
+        if (buffer.remaining() < Integer.BYTES) {
+            return false;
+        }
+        commandNumber = buffer.getInt();
+        if (commandNumber < 0 || commandNumber >= COMMANDS.length || buffer.remaining() < Long.BYTES) {
+            return false;
+        }
+        Protocol decoded = COMMANDS[commandNumber];
+        format = TimestampFormat.MILLIS;
+        switch (decoded) {
+            case FOLLOW_UP_NS:
+                decoded = Protocol.FOLLOW_UP;
+                format = TimestampFormat.NANOS;
+                break;
+            case DELAY_REQUEST_NS:
+                decoded = Protocol.DELAY_REQUEST;
+                format = TimestampFormat.NANOS;
+                break;
+            case DELAY_RESPONSE_NS:
+                decoded = Protocol.DELAY_RESPONSE;
+                format = TimestampFormat.NANOS;
+                break;
+            case SYNC_ONE_STEP:
+                format = TimestampFormat.NANOS;
+                break;
+            default:
+                break;
+        }
+        id = buffer.getLong();
+        if (decoded == Protocol.FOLLOW_UP || decoded == Protocol.DELAY_RESPONSE
+                || decoded == Protocol.SYNC_ONE_STEP) {
+            if (format == TimestampFormat.NANOS) {
+                if (buffer.remaining() < Long.BYTES + Integer.BYTES) {
+                    return false;
+                }
+                long seconds = buffer.getLong();
+                int nanos = buffer.getInt();
+                if (nanos < 0 || nanos >= Timestamps.NANOS_PER_SECOND) {
+                    return false;
+                }
+                timestamp = seconds * Timestamps.NANOS_PER_SECOND + nanos;
+            } else {
+                if (buffer.remaining() < Long.BYTES) {
+                    return false;
+                }
+                timestamp = buffer.getLong() * Timestamps.NANOS_PER_MILLI;
+            }
+        }
+        if (decoded == Protocol.REGISTER) {
+            if (buffer.remaining() < 2 * Integer.BYTES) {
+                return false;
+            }
+            registeredPort = buffer.getInt();
+            leaseMillis = buffer.getInt();
+            // the port is used as a destination, a lease of 0 unsubscribes
+            if (registeredPort < 1 || registeredPort > MAX_PORT || leaseMillis < 0) {
+                return false;
+            }
+        }
+        // optional trailers
+        if ((decoded == Protocol.SYNC || decoded == Protocol.SYNC_ONE_STEP) && buffer.remaining() >= Integer.BYTES) {
+            syncInterval = buffer.getInt();
+        } else if (decoded == Protocol.DELAY_REQUEST && buffer.remaining() >= Integer.BYTES + Long.BYTES) {
+            hasSlaveStatus = true;
+            slaveStatus = buffer.getInt();
+            slaveJitter = buffer.getLong();
+        }
+        command = decoded;
+        return true;
+    }
+
+    /**
+     * @return the command of the last decoded message, null if it was unknown or truncated
+     */
+    public Protocol command() {
+        return command;
+    }
+
+    /**
+     * @return the raw command number of the last decoded message, -1 if it was too short
+     */
+    public int commandNumber() {
+        return commandNumber;
+    }
+
+    /**
+     * @return the timestamp format of the last decoded message
+     */
+    public TimestampFormat format() {
+        return format;
+    }
+
+    /**
+     * @return the id of the last decoded message
+     */
+    public long id() {
+        return id;
+    }
+
+    /**
+     * @return the master's time carried by the last decoded FOLLOW_UP, DELAY_RESPONSE or SYNC_ONE_STEP, in nanoseconds
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the sync interval announced by the last decoded SYNC, in milliseconds, 0 if not announced
+     */
+    public int syncInterval() {
+        return syncInterval;
+    }
+
+    /**
+     * @return the port of the slave carried by the last decoded REGISTER
+     */
+    public int registeredPort() {
+        return registeredPort;
+    }
+
+    /**
+     * @return the duration of the lease carried by the last decoded REGISTER, in milliseconds
+     */
+    public int leaseMillis() {
+        return leaseMillis;
+    }
+
+    /**
+     * @return true if the last decoded DELAY_REQUEST reported the status of its slave
+     */
+    public boolean hasSlaveStatus() {
+        return hasSlaveStatus;
+    }
+
+    /**
+     * @return true if the slave of the last decoded DELAY_REQUEST is locked on the master
+     */
+    public boolean slaveLocked() {
+        return hasSlaveStatus && (slaveStatus & STATUS_LOCKED) != 0;
+    }
+
+    /**
+     * @return the jitter reported by the last decoded DELAY_REQUEST, in nanoseconds
+     */
+    public long slaveJitter() {
+        return slaveJitter;
+    }
+}
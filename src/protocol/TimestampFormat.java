@@ -0,0 +1,11 @@
+package protocol;
+
+/**
+ * This enumeration defines how the timestamps are carried by the FOLLOW_UP, DELAY_REQUEST and DELAY_RESPONSE messages
+ * - MILLIS: the time is sent as a long counting milliseconds, understood by every slave and master
+ * - NANOS: the time is sent as a long counting seconds followed by an int counting nanoseconds
+ */
+public enum TimestampFormat {
+    MILLIS,
+    NANOS
+}
@@ -0,0 +1,42 @@
+package protocol;
+
+import java.time.Clock;
+import java.time.Instant;
+
+/**
+ * This class contains the conversions of the timestamps used by the master and the slaves
+ * Internally every timestamp is a long counting nanoseconds since the epoch, which is enough until the year 2262.
+ */
+public final class Timestamps {
+
+    public static final long NANOS_PER_SECOND = 1_000_000_000L;
+    public static final long NANOS_PER_MILLI = 1_000_000L;
+
+    private Timestamps() {
+    }
+
+    /**
+     * @param instant instant to convert
+     * @return nanoseconds since the epoch
+     */
+    public static long toNanos(Instant instant) {
+        return instant.getEpochSecond() * NANOS_PER_SECOND + instant.getNano();
+    }
+
+    /**
+     * Reads the current time of a clock with the best precision it offers
+     * @param clock clock to read
+     * @return nanoseconds since the epoch
+     */
+    public static long now(Clock clock) {
+        return toNanos(clock.instant());
+    }
+
+    /**
+     * @param nanos nanoseconds since the epoch
+     * @return milliseconds since the epoch, rounded down
+     */
+    public static long toMillis(long nanos) {
+        return Math.floorDiv(nanos, NANOS_PER_MILLI);
+    }
+}
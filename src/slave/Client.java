@@ -1,10 +1,31 @@
 package slave;
 
+import clock.MonotonicTimeSource;
+import clock.TimeSource;
+import eventlog.Event;
+import eventlog.EventLog;
+import execution.StoppableTask;
+import execution.TaskGroup;
+import journal.Journal;
+import metrics.Counter;
+import metrics.Histogram;
+import metrics.MetricsHttpServer;
+import metrics.MetricsRegistry;
 import protocol.Protocol;
+import protocol.ProtocolCodec;
+import protocol.TimestampFormat;
+import protocol.Timestamps;
+import timestamping.DatagramReceiver;
 
-import java.io.*;
+import java.io.IOException;
 import java.net.*;
-import java.util.Random;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -16,32 +37,109 @@ import java.util.logging.Logger;
  *
  * Description:
  * Slave is implemented with two threads:
- * - one thread receiving the SYNC and FOLLOW_UP messages and calculting the time gap between the master and slave:
- * {@link SyncListener}
+ * - one thread receiving the SYNC and FOLLOW_UP messages and calculting the time offset between the master and
+ * slave: {@link SyncListener}
  * - one thread sending the DELAY_REQUESTs and receiving the DELAY_RESPONSEs in order to calculate the time delay
- * between the master and the slave: {@link DelayRequestSender}
+ * between the master and the slave: {@link DelayRequestSender}, which never blocks on a single response
  * Both of these threads implement {@link Runnable} interface. {@link SyncListener} is launched in the {@link Client}
  * class when its start method is called. {@link DelayRequestSender} is launched from the {@link SyncListener} class
  * once the first FOLLOW_UP message containing the master's time is received.
+ * They run in a {@link TaskGroup}: in virtual threads on Java 21 and later, or in the executor given to
+ * {@link #setExecutor(ExecutorService)}, so that a process can host many slaves. The {@link SyncListener} gets its own
+ * platform thread when it reads the kernel timestamps, which block in native code.
  * Slave's local time is calculated every time the FOLLOW_UP message is received once the first delay is calculated.
- * To receive and send data in the UDP packets, {@link ByteArrayInputStream}s and {@link ByteArrayOutputStream} wrapped
- * into the {@link DataInputStream} and {@link DataOutputStream} are used.
+ * The SYNC_ONE_STEP messages of a master in {@code ONE_STEP} mode carry their time, they are handled as a SYNC
+ * immediately followed by its FOLLOW_UP.
+ * The messages are encoded and decoded with a {@link ProtocolCodec} into {@link ByteBuffer}s which are allocated once
+ * per thread and reused for every packet.
+ * The local time is read from a {@link TimeSource}, every time, offset and delay counts nanoseconds.
+ * FOLLOW_UPs are accepted in both {@link TimestampFormat}s, DELAY_REQUESTs ask for the configured format
+ * (milliseconds by default, for the existing masters).
+ * The offset and the mean path delay are computed by a {@link PtpEstimator} from the four timestamps t1 to t4 of the
+ * exchanges. The offsets go through a {@link SampleFilter} ({@link OffsetFilter} by default, or
+ * {@link KalmanFilter}), which rejects the outliers, and are fed to a {@link ClockServo} which slews a logical clock
+ * towards the master's time. After each sample an immutable {@link TimeSnapshot} of the logical clock is published
+ * through a volatile reference, the local time displayed is computed from it.
+ * The slave records its metrics in a {@link MetricsRegistry}: the offsets and the path delays measured, the FOLLOW_UPs
+ * which did not match their SYNC, the SYNCs lost (gaps in their ids), the outliers rejected, the unknown commands, the
+ * DELAY_REQUESTs timed out and retransmitted, and the ones refused because all the slots of the correlator were
+ * pending.
+ * The offsets, delays and local times are written to an asynchronous {@link EventLog}, so that no log line is
+ * formatted or written between the reception of a message and its timestamp.
+ * The SYNCs are read through a {@link DatagramReceiver}. With the kernel timestamps enabled and available, their
+ * arrival time is corrected by the age given by the kernel, so that it does not include the wakeup latency of the
+ * {@link SyncListener}, otherwise it is the time at which the receive call returns.
+ * The sync interval is the one announced by the master in its SYNCs (the one given to the constructor until the
+ * first announcement), the DELAY_REQUESTs are sent every few sync intervals as decided by a
+ * {@link DelayRequestScheduler}: quickly while the slave converges, less and less often once the delay is stable.
+ * In return every DELAY_REQUEST reports to the master whether the slave is locked and the jitter of its offsets, an
+ * exponential moving average of the distance between the raw and the filtered offsets.
+ * With {@link #setUnicastMaster(InetAddress)} the SYNCs are received in unicast on an ephemeral port instead, which
+ * the {@link Registrar} registers with the master and renews before the end of its lease.
+ * The slave is stopped by {@link #close()}, which releases its threads and sockets and leaves the multicast group.
+ * Optionally, every complete exchange (t1 to t4, raw offset and delay) is appended to a binary {@link Journal} for an
+ * offline analysis of the quality of the clock.
  */
-public class Client {
+public class Client implements AutoCloseable {
 
     private static final Logger LOG = Logger.getLogger(Client.class.getName());
+    // gives a unique name to the metrics of each slave of the process
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
 
     private InetAddress group;
     private static final int BUFFER_SIZE = 256;
-    private int timeInterval = 2000;
-    private boolean firstDelayCalculated = false;
-    private long gap;
-    private long delay;
+    // time given to the threads to stop by themselves when the slave is closed
+    private static final long STOP_GRACE_MILLIS = 1000;
+    // weight of a new sample in the moving average of the jitter
+    private static final long JITTER_SMOOTHING = 8;
+    // sync interval of the master, updated by the interval announced in the SYNCs
+    private volatile int timeInterval = 2000;
+    // offset and delay between the master and the slave
+    private final PtpEstimator estimator = new PtpEstimator();
+    // logical clock disciplined by the offsets
+    private final ClockServo servo = new ClockServo();
+    // filter of the offsets between the estimator and the servo
+    private SampleFilter sampleFilter = new OffsetFilter();
+    // last time state published by the SyncListener, read by any thread
+    private volatile TimeSnapshot snapshot = TimeSnapshot.UNSYNCHRONIZED;
+    // source of the local time, read by currentTimeNanos
+    private volatile TimeSource timeSource = new MonotonicTimeSource();
+    // format of the timestamps asked in the DELAY_REQUESTs
+    private TimestampFormat timestampFormat = TimestampFormat.MILLIS;
+    // metrics of the slave
+    private final MetricsRegistry metrics = new MetricsRegistry("slave-" + INSTANCES.getAndIncrement());
+    private final Histogram offsets = metrics.histogram("ptp_slave_offset_nanos");
+    private final Histogram pathDelays = metrics.histogram("ptp_slave_path_delay_nanos");
+    private final Counter pairingMisses = metrics.counter("ptp_slave_pairing_misses_total");
+    private final Counter lostSyncs = metrics.counter("ptp_slave_lost_syncs_total");
+    private final Counter outliers = metrics.counter("ptp_slave_outliers_total");
+    private final Counter unknownCommands = metrics.counter("ptp_slave_unknown_commands_total");
+    private final Counter delayTimeouts = metrics.counter("ptp_slave_delay_timeouts_total");
+    private final Counter delayRetransmissions = metrics.counter("ptp_slave_delay_retransmissions_total");
+    private final Counter delayRequestsRefused = metrics.counter("ptp_slave_delay_requests_refused_total");
+    // log of the events of the hot paths
+    private final EventLog eventLog = new EventLog(LOG);
+    // binary journal of the exchanges, null if disabled
+    private Journal journal;
+    // jitter of the raw offsets around the filtered ones, reported to the master
+    private volatile long jitter = 0;
+    // executor running the threads of the slave, null for the default one
+    private ExecutorService executor;
+    // threads of the slave, created by start
+    private TaskGroup tasks;
+    private boolean closed = false;
+    // if true, the SYNCs are stamped by the kernel when possible
+    private boolean kernelTimestamps = false;
+    // port of the SYNCs, and of the DELAY_REQUESTs on the master
+    private int syncPort = 4445;
+    private int delayRequestPort = 4446;
+    // master to register with for the unicast SYNCs, null to receive them from the multicast group
+    private InetAddress unicastMaster;
 
     /**
      * Constructor
      * @param address multicast group for the SYNC messages
-     * @param timeInterval the time interval within which the SYNC messages are sent
+     * @param timeInterval the time interval within which the SYNC messages are sent, until the master announces it
      */
     public Client(InetAddress address, int timeInterval) {
         this.group = address;
@@ -59,32 +157,167 @@ public class Client {
         }
     }
 
+    /**
+     * Sets the source of the local time
+     * Must be called before {@link #start()}
+     * @param timeSource time source to use
+     */
+    public void setTimeSource(TimeSource timeSource) {
+        this.timeSource = timeSource;
+    }
+
+    /**
+     * Sets the format of the timestamps asked to the master in the DELAY_REQUESTs
+     * Must be called before {@link #start()}
+     * @param timestampFormat MILLIS for the existing masters, NANOS for nanosecond resolution
+     */
+    public void setTimestampFormat(TimestampFormat timestampFormat) {
+        this.timestampFormat = timestampFormat;
+    }
+
+    /**
+     * Sets the filter applied to the offsets before they reach the servo
+     * Must be called before {@link #start()}
+     * @param sampleFilter filter to use, an {@link OffsetFilter} or a {@link KalmanFilter}
+     */
+    public void setSampleFilter(SampleFilter sampleFilter) {
+        this.sampleFilter = sampleFilter;
+    }
+
+    /**
+     * Sets the journal in which every exchange is recorded
+     * Must be called before {@link #start()}
+     * @param journal journal to use, null to disable it
+     */
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Enables the kernel receive timestamps of the SYNCs, see {@link timestamping.KernelTimestampReceiver}
+     * Falls back to the user space timestamps when they are not available
+     * Must be called before {@link #start()}
+     * @param kernelTimestamps true to use the kernel timestamps when possible
+     */
+    public void setKernelTimestamps(boolean kernelTimestamps) {
+        this.kernelTimestamps = kernelTimestamps;
+    }
+
+    /**
+     * Sets the ports of the master, to follow a master which does not use the default ones
+     * Must be called before {@link #start()}
+     * @param syncPort port to which the SYNC and FOLLOW_UP messages are sent, 4445 by default
+     * @param delayRequestPort port of the master receiving the DELAY_REQUESTs, 4446 by default
+     */
+    public void setPorts(int syncPort, int delayRequestPort) {
+        this.syncPort = syncPort;
+        this.delayRequestPort = delayRequestPort;
+    }
+
+    /**
+     * Receives the SYNCs in unicast from a master in unicast mode, for the networks which drop multicast
+     * The slave listens to an ephemeral port and keeps it registered with the master by the {@link Registrar}
+     * Must be called before {@link #start()}
+     * @param unicastMaster address of the master, null to receive the SYNCs from the multicast group
+     */
+    public void setUnicastMaster(InetAddress unicastMaster) {
+        this.unicastMaster = unicastMaster;
+    }
+
+    /**
+     * Sets the executor running the threads of the slave, it is not shut down with the slave
+     * Must be called before {@link #start()}
+     * @param executor executor to use, null for {@link TaskGroup#defaultExecutor()}
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the metrics of the slave
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
     /**
      * Launches the slave
      */
     public void start() {
-        new Thread(new SyncListener()).start();
+        tasks = new TaskGroup(metrics.getName(), executor);
+        tasks.start("event-log", eventLog);
+        SyncListener syncListener = new SyncListener();
+        if (syncListener.receiver != null && syncListener.receiver.pinsThread()) {
+            tasks.startDedicated("sync-listener", syncListener);
+        } else {
+            tasks.start("sync-listener", syncListener);
+        }
+        if (unicastMaster != null && syncListener.receiver != null) {
+            tasks.start("registrar", new Registrar(syncListener.receiver.localPort()));
+        }
+    }
+
+    /**
+     * Waits until the threads of the slave end
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public void join() throws InterruptedException {
+        tasks.join();
+    }
+
+    /**
+     * Stops the slave
+     * The threads are asked to stop: the receiver of the SYNCs is closed, which leaves the multicast group, the
+     * unicast master is told to forget the slave, and the responses of the DELAY_REQUESTs in flight are awaited up to
+     * their timeout, and the event log formats the records written. The threads still running after STOP_GRACE_MILLIS
+     * are interrupted. Then the metrics are unregistered from JMX. The journal is not closed, it belongs to the caller.
+     * The last snapshot stays readable.
+     * A closed slave cannot be started again, a new one can be created on the same ports.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed || tasks == null) {
+            return;
+        }
+        closed = true;
+        try {
+            tasks.stop(STOP_GRACE_MILLIS);
+        } catch (InterruptedException e) {
+            LOG.log(Level.SEVERE, e.getMessage(), e);
+            Thread.currentThread().interrupt();
+        }
+        metrics.unregisterJmx();
     }
 
 
+    /**
+     * Counts a datagram whose handling failed, so that a malformed datagram never ends a listener
+     * @param e exception thrown while handling the datagram
+     */
+    private void malformedDatagram(RuntimeException e) {
+        unknownCommands.increment();
+        LOG.log(Level.SEVERE, e.getMessage(), e);
+    }
+
     /**
      * {@link SyncListener} class receives the the SYNC and FOLLOW_UP messages and calculates
-     * the time gap between the master and the slave
+     * the time offset between the master and the slave
      */
-    private class SyncListener implements Runnable {
+    private class SyncListener implements StoppableTask {
 
-        private MulticastSocket socket;
-        private boolean shouldRun = true;
-        private long syncId = -1;
-        private int port = 4445;
+        private DatagramReceiver receiver;
+        private volatile boolean shouldRun = true;
+        private boolean firstMasterTimeReceived = false;
+        private int port = syncPort;
 
         /**
          * Constructor
          */
         SyncListener() {
             try {
-                socket = new MulticastSocket(port);
-                socket.joinGroup(group);
+                receiver = unicastMaster == null ? DatagramReceiver.open(port, group, kernelTimestamps)
+                        : DatagramReceiver.open(0, null, kernelTimestamps);
+                LOG.log(Level.INFO, () -> "SYNCs received by " + receiver.getClass().getSimpleName());
             } catch (IOException e) {
                 LOG.log(Level.SEVERE, e.getMessage(), e);
             }
@@ -93,57 +326,183 @@ public class Client {
 
         @Override
         public void run() {
-            long masterTime;
-            boolean firstFollowUpReceived = false;
-            byte[] buffer = new byte[BUFFER_SIZE];
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-            ByteArrayInputStream byteArrayInputStream;
-            DataInputStream dataInputStream;
-            long systemTime = 0;
+            long lastSyncId = -1;
+            ProtocolCodec codec = new ProtocolCodec();
             while (shouldRun) {
                 try {
                     // listen fot the incoming package
-                    socket.receive(packet);
-                    buffer = packet.getData();
-                    byteArrayInputStream = new ByteArrayInputStream(buffer);
-                    dataInputStream = new DataInputStream(byteArrayInputStream);
-                    int commandNumber = dataInputStream.readInt();
-                    if (commandNumber == Protocol.SYNC.ordinal()) { // receiving SYNC message
-                        syncId = dataInputStream.readLong();
-                        systemTime = System.currentTimeMillis();
+                    ByteBuffer buffer = receiver.receive();
+                    // time of arrival of the packet in the host
+                    long arrival = timeSource.currentTimeNanos() - receiver.age();
+                    codec.decode(buffer);
+                    Protocol command = codec.command();
+                    if (command == Protocol.SYNC || command == Protocol.SYNC_ONE_STEP) { // receiving SYNC message, t2
+                        long syncId = codec.id();
+                        estimator.syncReceived(syncId, arrival);
+                        // a lower id means that the master was restarted
+                        if (lastSyncId >= 0 && syncId > lastSyncId + 1) {
+                            lostSyncs.add(syncId - lastSyncId - 1);
+                        }
+                        lastSyncId = syncId;
+                        if (codec.syncInterval() > 0) {
+                            timeInterval = codec.syncInterval();
+                        }
 //                        LOG.log(Level.INFO, () -> "[" + syncId + "] " + Protocol.SYNC.getMessage() + " received");
-                    } else if (commandNumber == Protocol.FOLLOW_UP.ordinal()) { // receiving FOLLOW_UP message
-                        long fuId = dataInputStream.readLong();
-//                        LOG.log(Level.INFO, () -> "[" + fuId + "] " +  Protocol.SYNC.getMessage() + " received");
-                        if(fuId == syncId) { // id check
-                            masterTime = dataInputStream.readLong();
-                            gap = masterTime - systemTime;
-                            LOG.log(Level.INFO, () -> "[" + syncId + "] gap: " + gap);
-                            // the thread which sends the DELAY_REQUESTs is launched after the first
-                            // FOLLOW_UP message is received
-                            if (!firstFollowUpReceived) {
-                                firstFollowUpReceived = true;
-                                new Thread(new DelayRequestSender(packet.getAddress())).start();
-                            }
-                            // the local time is displayed after the first delay is calculated
-                            if (firstDelayCalculated) {
-                                long resultTime = systemTime + gap + delay;
-                                LOG.log(Level.INFO, () -> "[" + syncId + "] LOCAL TIME: " + resultTime + "\n");
-                            }
+                        // a one-step SYNC carries t1 itself, no FOLLOW_UP follows
+                        if (command == Protocol.SYNC_ONE_STEP) {
+                            masterTimeReceived(syncId, codec.timestamp());
                         }
+                    } else if (command == Protocol.FOLLOW_UP) { // receiving FOLLOW_UP message, t1
+                        masterTimeReceived(codec.id(), codec.timestamp());
                     } else {
+                        unknownCommands.increment();
+                        int commandNumber = codec.commandNumber();
                         LOG.log(Level.SEVERE, () -> "Unknown " + Protocol.SYNC.getMessage() + " command : "
                                 + commandNumber);
                     }
+                } catch (IOException e) {
+                    // the receiver was closed by stop, or is broken
+                    if (shouldRun) {
+                        LOG.log(Level.SEVERE, e.getMessage(), e);
+                    }
+                    break;
+                } catch (RuntimeException e) {
+                    malformedDatagram(e);
+                }
+            }
+            closeReceiver();
+        }
+
+        /**
+         * Shuts the receiver down, which interrupts the blocking receive
+         * The receiver is closed by the thread of the listener once the receive returned, so that its socket is never
+         * released while the thread still uses it
+         */
+        @Override
+        public void stop() {
+            shouldRun = false;
+            if (receiver != null) {
+                try {
+                    receiver.shutdown();
+                } catch (IOException e) {
+                    LOG.log(Level.SEVERE, e.getMessage(), e);
+                }
+            }
+        }
+
+        private void closeReceiver() {
+            if (receiver != null) {
+                try {
+                    receiver.close();
                 } catch (IOException e) {
                     LOG.log(Level.SEVERE, e.getMessage(), e);
+                }
+            }
+        }
+
+        /**
+         * Computes the offset once the master's time of a SYNC is known, from its FOLLOW_UP or from the SYNC itself
+         * @param id id of the SYNC
+         * @param masterTime master's time when the SYNC was sent, t1
+         */
+        private void masterTimeReceived(long id, long masterTime) {
+            if (!estimator.followUpReceived(id, masterTime)) { // id check
+                pairingMisses.increment();
+                return;
+            }
+            long offset = estimator.offset();
+            offsets.record(offset);
+            eventLog.log(Event.OFFSET, id, offset);
+            if (journal != null) {
+                journal.append(Journal.SAMPLE, id, estimator.syncDeparture(), estimator.syncArrival(),
+                        estimator.delayRequestDeparture(), estimator.delayRequestArrival(), offset,
+                        estimator.meanPathDelay());
+            }
+            // the thread which sends the DELAY_REQUESTs is launched after the first master's time is received
+            if (!firstMasterTimeReceived) {
+                firstMasterTimeReceived = true;
+                tasks.start("delay-request-sender", new DelayRequestSender(receiver.sourceAddress()));
+            }
+            // the local time is displayed after the first delay is calculated
+            if (estimator.isDelayKnown()) {
+                long syncArrival = estimator.syncArrival();
+                long delay = estimator.meanPathDelay();
+                if (sampleFilter.add(syncArrival, offset, delay)) {
+                    long filteredOffset = sampleFilter.offset(syncArrival);
+                    jitter += (Math.abs(offset - filteredOffset) - jitter) / JITTER_SMOOTHING;
+                    servo.sample(syncArrival, filteredOffset);
+                    TimeSnapshot published = servo.snapshot(snapshot.epoch() + 1, filteredOffset, delay);
+                    snapshot = published;
+                    long resultTime = published.time(timeSource.currentTimeNanos());
+                    eventLog.log(Event.LOCAL_TIME, id, resultTime, published.epoch());
+                } else {
+                    outliers.increment();
+                    eventLog.log(Event.OUTLIER, id, offset);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@link Registrar} class keeps the slave subscribed to the unicast SYNCs of the master
+     * A REGISTER is sent to the DELAY_REQUEST port of the master every third of the lease, so that a lost one does not
+     * end the subscription, and a last one with a lease of 0 unsubscribes the slave when it stops.
+     */
+    private class Registrar implements StoppableTask {
+
+        // duration of the subscription asked to the master
+        private static final int LEASE_MILLIS = 30_000;
+
+        private volatile boolean shouldRun = true;
+        // thread running the registrar, interrupted to stop its sleep
+        private volatile Thread thread;
+        private final int syncPort;
+        private int port = delayRequestPort;
+
+        /**
+         * Constructor
+         * @param syncPort port on which the slave receives the SYNCs
+         */
+        Registrar(int syncPort) {
+            this.syncPort = syncPort;
+        }
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            LOG.log(Level.INFO, () -> "registering the port " + syncPort + " with " + unicastMaster);
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            DatagramPacket packet = new DatagramPacket(buffer.array(), 0, unicastMaster, port);
+            long id = 0;
+            try (DatagramSocket socket = new DatagramSocket()) {
+                while (shouldRun) {
+                    ProtocolCodec.encodeRegister(buffer, id++, syncPort, LEASE_MILLIS);
+                    packet.setLength(buffer.limit());
+                    socket.send(packet);
                     try {
-                        socket.leaveGroup(group);
-                        socket.close();
-                    } catch (IOException e1) {
-                        LOG.log(Level.SEVERE, e.getMessage(), e);
+                        Thread.sleep(LEASE_MILLIS / 3);
+                    } catch (InterruptedException e) {
+                        // stopped, the interrupt is not restored so that the last REGISTER can be sent
+                        break;
                     }
                 }
+                ProtocolCodec.encodeRegister(buffer, id, syncPort, 0);
+                packet.setLength(buffer.limit());
+                socket.send(packet);
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Interrupts the sleep of the registrar, which unregisters the slave
+         */
+        @Override
+        public void stop() {
+            shouldRun = false;
+            Thread current = thread;
+            if (current != null) {
+                current.interrupt();
             }
         }
     }
@@ -151,14 +510,31 @@ public class Client {
     /**
      * {@link DelayRequestSender} class sends DELAY_REQUESTs to the master to calculate the time delay between
      * itself and the master
+     * The requests are sent and the responses received through a non-blocking {@link DatagramChannel}, driven by a
+     * {@link Selector} which wakes up for the responses, the next request of the {@link DelayRequestScheduler} and the
+     * next deadline of the {@link DelayRequestCorrelator}. Several requests can be in flight, every response is matched
+     * with its request by id and goes straight to the estimator, even when it arrives after the deadline. A request
+     * without response before its deadline is sent again under a new id, up to MAX_RETRIES times.
      */
-    private class DelayRequestSender implements Runnable {
+    private class DelayRequestSender implements StoppableTask {
+
+        // maximal number of requests in flight
+        private static final int MAX_IN_FLIGHT = 8;
+        // maximal number of retransmissions of a request
+        private static final int MAX_RETRIES = 3;
+        // time after which a request without response is sent again
+        private static final long TIMEOUT_NANOS = 500_000_000L;
 
-        private boolean shouldRun = true;
-        private Random random;
-        private DatagramSocket socket;
-        private InetAddress serverAddress;
-        private int port = 4446;
+        private volatile boolean shouldRun = true;
+        private final DelayRequestScheduler scheduler = new DelayRequestScheduler();
+        private final DelayRequestCorrelator correlator = new DelayRequestCorrelator(MAX_IN_FLIGHT);
+        private final ProtocolCodec codec = new ProtocolCodec();
+        private final ByteBuffer requestBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final ByteBuffer responseBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private DatagramChannel channel;
+        private Selector selector;
+        private InetSocketAddress serverAddress;
+        private int port = delayRequestPort;
 
         private long delayId = 0;
 
@@ -166,11 +542,14 @@ public class Client {
          * Constructor
          */
         DelayRequestSender(InetAddress serverAddress) {
-            random = new Random();
+            this.serverAddress = new InetSocketAddress(serverAddress, port);
             try {
-                socket = new DatagramSocket();
-                this.serverAddress = serverAddress;
-            } catch (SocketException e) {
+                channel = DatagramChannel.open();
+                channel.configureBlocking(false);
+                channel.bind(null);
+                selector = Selector.open();
+                channel.register(selector, SelectionKey.OP_READ);
+            } catch (IOException e) {
                 LOG.log(Level.SEVERE, e.getMessage(), e);
             }
         }
@@ -178,56 +557,166 @@ public class Client {
         @Override
         public void run() {
             LOG.log(Level.INFO, this.getClass().getName() + " launched");
-            long localTimeOfDelayRequest;
-            byte[] buffer;
-            DatagramPacket packet;
-            ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            DataOutputStream dataOutputStream = new DataOutputStream(byteArrayOutputStream);
-            ByteArrayInputStream byteArrayInputStream;
-            DataInputStream dataInputStream;
+            long nextRequest = System.nanoTime();
             while (shouldRun) {
                 try {
-                    // send the DELAY_REQUEST
-                    dataOutputStream.writeInt(Protocol.DELAY_REQUEST.ordinal());
-                    dataOutputStream.writeLong(delayId);
-                    buffer = byteArrayOutputStream.toByteArray();
-                    packet = new DatagramPacket(buffer, buffer.length, serverAddress, port);
-                    localTimeOfDelayRequest = System.currentTimeMillis() + gap + delay;
-                    socket.send(packet);
-                    byteArrayOutputStream.reset();
-//                    LOG.log(Level.INFO, () -> "[" + delayId + "] " + Protocol.DELAY_REQUEST + " sent");
-                    // block until the DELAY_RESPONSE is received
-                    buffer = new byte[BUFFER_SIZE];
-                    packet = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(packet);
-                    buffer = packet.getData();
-                    byteArrayInputStream = new ByteArrayInputStream(buffer);
-                    dataInputStream = new DataInputStream(byteArrayInputStream);
-                    int commandNumber = dataInputStream.readInt();
-                    if (commandNumber == Protocol.DELAY_RESPONSE.ordinal()) { // command verification
-                        long drId = dataInputStream.readLong();
-//                        LOG.log(Level.INFO, () -> "[" + drId + "] " + Protocol.DELAY_RESPONSE + " received");
-                        if (drId == delayId) { // id verification
-                            long masterTime = dataInputStream.readLong();
-                            delay = (masterTime - localTimeOfDelayRequest)/2;
-                            LOG.log(Level.INFO, () -> "[" + delayId +"] delay: " + delay);
-                            firstDelayCalculated = true;
+                    long now = System.nanoTime();
+                    if (now - nextRequest >= 0) {
+                        send(0);
+                        boolean locked = snapshot.quality() == TimeSnapshot.Quality.LOCKED;
+                        nextRequest = now + scheduler.nextWait(timeInterval, locked) * 1_000_000L;
+                    }
+                    // retransmit the requests whose deadline passed
+                    int attempt;
+                    while ((attempt = correlator.expire(now)) >= 0) {
+                        delayTimeouts.increment();
+                        if (attempt < MAX_RETRIES && send(attempt + 1)) {
+                            delayRetransmissions.increment();
+                        }
+                    }
+                    long wakeup = correlator.nextDeadline(nextRequest);
+                    selector.select(Math.max(1, (wakeup - System.nanoTime()) / 1_000_000L));
+                    selector.selectedKeys().clear();
+                    drain();
+                } catch (IOException e) {
+                    if (!channel.isOpen()) {
+                        break;
+                    }
+                    LOG.log(Level.SEVERE, e.getMessage(), e);
+                }
+            }
+            try {
+                // waits for the responses of the requests in flight
+                long deadline = System.nanoTime() + TIMEOUT_NANOS;
+                while (correlator.pending() > 0 && deadline - System.nanoTime() > 0) {
+                    selector.select(Math.max(1, (deadline - System.nanoTime()) / 1_000_000L));
+                    selector.selectedKeys().clear();
+                    drain();
+                }
+                selector.close();
+                channel.close();
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Wakes up the selector, the responses in flight are still awaited up to the timeout of a request
+         */
+        @Override
+        public void stop() {
+            shouldRun = false;
+            if (selector != null) {
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Sends a DELAY_REQUEST under a new id, unless too many requests are in flight
+         * A request refused, new or retransmitted, is counted
+         * @param attempt attempt number of the request, 0 for a new one
+         * @return true if the request was sent
+         * @throws IOException if the channel fails
+         */
+        private boolean send(int attempt) throws IOException {
+            int status = snapshot.quality() == TimeSnapshot.Quality.LOCKED ? ProtocolCodec.STATUS_LOCKED : 0;
+            ProtocolCodec.encodeDelayRequest(requestBuffer, delayId, timestampFormat, status, jitter);
+            long t3 = timeSource.currentTimeNanos();
+            if (correlator.add(delayId, t3, System.nanoTime() + TIMEOUT_NANOS, attempt)) {
+                channel.send(requestBuffer, serverAddress);
+//                LOG.log(Level.INFO, () -> "[" + delayId + "] " + Protocol.DELAY_REQUEST + " sent");
+                delayId++;
+                return true;
+            }
+            delayRequestsRefused.increment();
+            return false;
+        }
+
+        /**
+         * Reads every DELAY_RESPONSE available and passes the matched ones to the estimator
+         * @throws IOException if the channel fails
+         */
+        private void drain() throws IOException {
+            while (channel.receive(responseBuffer) != null) {
+                responseBuffer.flip();
+                try {
+                    // command verification
+                    if (codec.decode(responseBuffer) && codec.command() == Protocol.DELAY_RESPONSE) {
+                        long drId = codec.id();
+                        long t3 = correlator.complete(drId); // id verification
+                        if (t3 != Long.MIN_VALUE && estimator.delayExchangeCompleted(t3, codec.timestamp())) { // t4
+                            long delay = estimator.meanPathDelay();
+                            pathDelays.record(delay);
+                            scheduler.delayMeasured(delay);
+                            eventLog.log(Event.DELAY, drId, delay);
                         }
                     } else {
+                        unknownCommands.increment();
                         LOG.log(Level.SEVERE, "Unknown " + Protocol.DELAY_RESPONSE.getMessage());
                     }
-                    delayId++;
-                    Thread.sleep((long) 4*timeInterval + random.nextInt(60*timeInterval-4*timeInterval+1));
-                } catch (InterruptedException | IOException e) {
-                    LOG.log(Level.SEVERE, e.getMessage(), e);
-                    socket.close();
-                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    malformedDatagram(e);
+                } finally {
+                    responseBuffer.clear();
                 }
             }
         }
     }
 
-    public static void main(String[] args) {
-        new Client().start();
+    /**
+     * Reads the time of the master as estimated by the slave
+     * The time is computed from the last published {@link TimeSnapshot} and the local {@link TimeSource}, without
+     * locks and without allocation, so it can be called by any number of threads at a high rate.
+     * Before the first sample the local time is returned, see {@link TimeSnapshot.Quality#UNSYNCHRONIZED}.
+     * @return the corrected time, in nanoseconds since the epoch
+     */
+    public long currentTimeNanos() {
+        return snapshot.time(timeSource.currentTimeNanos());
+    }
+
+    /**
+     * @return the corrected time, in milliseconds since the epoch
+     * @see #currentTimeNanos()
+     */
+    public long currentTimeMillis() {
+        return Timestamps.toMillis(currentTimeNanos());
+    }
+
+    /**
+     * @return the sync interval of the master, in milliseconds, as announced in its SYNCs
+     */
+    public int getSyncInterval() {
+        return timeInterval;
+    }
+
+    /**
+     * @return the last time state published, never null
+     */
+    public TimeSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Launches a slave
+     * @param args optional HTTP port on which the metrics are served (0 for none), optional directory of the journal
+     * (empty for none), optional address of a master in unicast mode
+     * @throws IOException if the metrics port cannot be bound or the journal cannot be created
+     * @throws InterruptedException if the main thread is interrupted
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Client client = new Client();
+        // falls back to the user space timestamps without the native library
+        client.setKernelTimestamps(true);
+        if (args.length > 1 && !args[1].isEmpty()) {
+            client.setJournal(new Journal(Paths.get(args[1]), "slave"));
+        }
+        if (args.length > 2) {
+            client.setUnicastMaster(InetAddress.getByName(args[2]));
+        }
+        client.start();
+        if (args.length > 0 && Integer.parseInt(args[0]) > 0) {
+            MetricsHttpServer.expose(client.getMetrics(), Integer.parseInt(args[0]));
+        }
+        client.join();
     }
 }
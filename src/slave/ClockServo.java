@@ -0,0 +1,181 @@
+package slave;
+
+/**
+ * This class disciplines the logical clock of the slave with a PI controller instead of stepping it on every sample
+ *
+ * Description:
+ * The logical clock is a linear function of the local clock: logical = logicalRef + (local - localRef) * (1 + freq),
+ * freq being a frequency adjustment in parts per billion. On each offset sample (offset of the local clock from the
+ * master, measured at a local time) the error of the logical clock is computed and the controller updates freq:
+ * - integral += -ki * error / interval, it estimates the frequency error of the local clock
+ * - freq = integral - kp * error / interval
+ * where interval is the number of seconds since the previous sample. The logical clock is re-anchored at the sample so
+ * it stays continuous and, since |freq| is bounded well below one billion, monotonic: the error is slewed away.
+ * The clock is only stepped on the first sample, on the second one (which also gives the first estimation of the
+ * frequency error from the drift of the offset) and when the error exceeds the step threshold. After a step the servo
+ * is UNLOCKED, it becomes LOCKED when the error stays below the lock threshold for a number of consecutive samples.
+ * The methods are synchronized, they are called by the listening thread and read by the other ones.
+ */
+public class ClockServo {
+
+    /**
+     * State of the servo
+     */
+    public enum State {
+        UNLOCKED,
+        LOCKED
+    }
+
+    private static final double NANOS_PER_SECOND = 1e9;
+    // the frequency adjustment is bounded to 0.05%
+    private static final double MAX_FREQUENCY_PPB = 500_000;
+
+    private final double kp;
+    private final double ki;
+    private final long stepThreshold;
+    private final long lockThreshold;
+    private final int lockSamples;
+
+    private State state = State.UNLOCKED;
+    private int samples = 0;
+    private int samplesBelowThreshold = 0;
+    private long firstSampleTime;
+    private long firstSampleOffset;
+    private long lastSampleTime;
+    private long lastError;
+    // logical clock
+    private long localRef;
+    private long logicalRef;
+    private double frequency;
+    private double integral;
+
+    /**
+     * Constructor
+     * @param kp proportional constant
+     * @param ki integral constant
+     * @param stepThreshold error above which the clock is stepped, in nanoseconds
+     * @param lockThreshold error below which the clock is considered locked, in nanoseconds
+     * @param lockSamples number of consecutive samples below the lock threshold needed to lock
+     */
+    public ClockServo(double kp, double ki, long stepThreshold, long lockThreshold, int lockSamples) {
+        this.kp = kp;
+        this.ki = ki;
+        this.stepThreshold = stepThreshold;
+        this.lockThreshold = lockThreshold;
+        this.lockSamples = lockSamples;
+    }
+
+    /**
+     * Default constructor
+     * kp = 0.7, ki = 0.3, step threshold of 10 ms, lock threshold of 100 us reached during 4 samples
+     */
+    public ClockServo() {
+        this(0.7, 0.3, 10_000_000L, 100_000L, 4);
+    }
+
+    /**
+     * Feeds an offset sample to the servo
+     * @param localTime local time of the measurement, in nanoseconds
+     * @param offset offset of the local clock from the master at that time, in nanoseconds
+     * @return the state of the servo after the sample
+     */
+    public synchronized State sample(long localTime, long offset) {
+        long masterTime = localTime - offset;
+        long error = samples == 0 ? 0 : time(localTime) - masterTime;
+        samples++;
+        if (samples == 1) {
+            firstSampleTime = localTime;
+            firstSampleOffset = offset;
+            step(localTime, masterTime);
+        } else if (samples == 2) {
+            // the drift of the offset of the local clock gives its frequency error
+            double elapsed = localTime - firstSampleTime;
+            if (elapsed > 0) {
+                integral = clamp(-(offset - firstSampleOffset) / elapsed * NANOS_PER_SECOND);
+            }
+            frequency = integral;
+            step(localTime, masterTime);
+        } else if (Math.abs(error) > stepThreshold) {
+            step(localTime, masterTime);
+        } else {
+            double interval = Math.max(localTime - lastSampleTime, 1) / NANOS_PER_SECOND;
+            double normalizedError = error / interval;
+            integral = clamp(integral - ki * normalizedError);
+            // re-anchoring before changing the frequency keeps the logical clock continuous
+            logicalRef = time(localTime);
+            localRef = localTime;
+            frequency = clamp(integral - kp * normalizedError);
+            updateLock(error);
+        }
+        lastSampleTime = localTime;
+        lastError = error;
+        return state;
+    }
+
+    private void step(long localTime, long masterTime) {
+        localRef = localTime;
+        logicalRef = masterTime;
+        state = State.UNLOCKED;
+        samplesBelowThreshold = 0;
+    }
+
+    private void updateLock(long error) {
+        if (Math.abs(error) <= lockThreshold) {
+            samplesBelowThreshold++;
+            if (samplesBelowThreshold >= lockSamples) {
+                state = State.LOCKED;
+            }
+        } else {
+            samplesBelowThreshold = 0;
+            state = State.UNLOCKED;
+        }
+    }
+
+    private static double clamp(double ppb) {
+        return Math.max(-MAX_FREQUENCY_PPB, Math.min(MAX_FREQUENCY_PPB, ppb));
+    }
+
+    /**
+     * Computes the disciplined time
+     * @param localTime local time, in nanoseconds
+     * @return the logical time corresponding to the local time, in nanoseconds
+     */
+    public synchronized long time(long localTime) {
+        long elapsed = localTime - localRef;
+        return logicalRef + elapsed + (long) (elapsed * frequency / NANOS_PER_SECOND);
+    }
+
+    /**
+     * Takes an immutable snapshot of the logical clock
+     * @param epoch number of the snapshot
+     * @param offset filtered offset of the slave from the master, in nanoseconds
+     * @param delay mean path delay, in nanoseconds
+     * @return the snapshot
+     */
+    public synchronized TimeSnapshot snapshot(long epoch, long offset, long delay) {
+        TimeSnapshot.Quality quality = state == State.LOCKED ? TimeSnapshot.Quality.LOCKED
+                : TimeSnapshot.Quality.UNLOCKED;
+        return new TimeSnapshot(epoch, localRef, logicalRef, frequency, offset, delay, quality);
+    }
+
+    /**
+     * @return the state of the servo
+     */
+    public synchronized State state() {
+        return state;
+    }
+
+    /**
+     * @return the frequency adjustment of the logical clock, in parts per billion
+     */
+    public synchronized double frequency() {
+        return frequency;
+    }
+
+    /**
+     * @return the error of the logical clock measured by the last sample, in nanoseconds
+     */
+    public synchronized long lastError() {
+        return lastError;
+    }
+}
@@ -0,0 +1,128 @@
+package slave;
+
+/**
+ * This class matches the DELAY_RESPONSEs with the DELAY_REQUESTs in flight
+ *
+ * Description:
+ * Every request sent is kept in a slot with its id, its sending time t3, its deadline and its attempt number (0 for
+ * the first sending, 1 for the first retransmission...). A request is:
+ * - PENDING until its response arrives or its deadline passes
+ * - EXPIRED once its deadline passed: the caller may retransmit it under a new id, but the slot keeps its t3, so that
+ * a late response is still matched and gives a valid delay
+ * - FREE once its response arrived, or when the slot of an expired request is reused by a new one (the oldest first)
+ * A new request is refused when all the slots are pending.
+ * The slots are primitive arrays allocated once and scanned linearly, there are only a few requests in flight.
+ * The deadlines come from {@link System#nanoTime()}, which may wrap around: they are only compared by difference.
+ * The correlator is used by the DELAY_REQUEST thread only, it is not thread-safe.
+ */
+public class DelayRequestCorrelator {
+
+    private static final byte FREE = 0;
+    private static final byte PENDING = 1;
+    private static final byte EXPIRED = 2;
+
+    private final long[] ids;
+    private final long[] sendingTimes;
+    private final long[] deadlines;
+    private final int[] attempts;
+    private final byte[] states;
+
+    /**
+     * Constructor
+     * @param capacity maximal number of requests kept
+     */
+    public DelayRequestCorrelator(int capacity) {
+        ids = new long[capacity];
+        sendingTimes = new long[capacity];
+        deadlines = new long[capacity];
+        attempts = new int[capacity];
+        states = new byte[capacity];
+    }
+
+    /**
+     * Records a request sent
+     * @param id id of the request
+     * @param t3 local time of sending
+     * @param deadline time after which the request expires, from {@link System#nanoTime()}
+     * @param attempt attempt number of the request
+     * @return false if all the slots are pending, the request must not be sent
+     */
+    public boolean add(long id, long t3, long deadline, int attempt) {
+        int slot = -1;
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == FREE) {
+                slot = i;
+                break;
+            }
+            if (states[i] == EXPIRED && (slot < 0 || deadlines[i] - deadlines[slot] < 0)) {
+                slot = i;
+            }
+        }
+        if (slot < 0) {
+            return false;
+        }
+        ids[slot] = id;
+        sendingTimes[slot] = t3;
+        deadlines[slot] = deadline;
+        attempts[slot] = attempt;
+        states[slot] = PENDING;
+        return true;
+    }
+
+    /**
+     * Matches a response with its request, pending or expired, and frees its slot
+     * @param id id of the request answered
+     * @return the sending time t3 of the request, Long.MIN_VALUE if it is unknown
+     */
+    public long complete(long id) {
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] != FREE && ids[i] == id) {
+                states[i] = FREE;
+                return sendingTimes[i];
+            }
+        }
+        return Long.MIN_VALUE;
+    }
+
+    /**
+     * Finds a pending request whose deadline passed and marks it expired
+     * @param now current time, from {@link System#nanoTime()}
+     * @return the attempt number of the expired request, -1 if there is none
+     */
+    public int expire(long now) {
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == PENDING && deadlines[i] - now <= 0) {
+                states[i] = EXPIRED;
+                return attempts[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param deadline deadline of the caller, from {@link System#nanoTime()}
+     * @return the earliest of the given deadline and of the deadlines of the pending requests
+     */
+    public long nextDeadline(long deadline) {
+        long next = deadline;
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == PENDING && deadlines[i] - next < 0) {
+                next = deadlines[i];
+            }
+        }
+        return next;
+    }
+
+    /**
+     * @return the number of pending requests
+     */
+    public int pending() {
+        int pending = 0;
+        for (byte state : states) {
+            if (state == PENDING) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+}
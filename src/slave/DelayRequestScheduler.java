@@ -0,0 +1,109 @@
+package slave;
+
+import java.util.Random;
+
+/**
+ * This class decides when the slave sends its next DELAY_REQUEST
+ *
+ * Description:
+ * The wait before the next request is factor * sync interval, multiplied by a random number between 0.5 and 1.5 so
+ * that the slaves of a restarting fleet do not send their requests together.
+ * - while the path delay is not stable or the clock of the slave is not locked, the factor is minFactor: the requests
+ * follow each other quickly so that the estimation converges. Such a burst is bounded to burst requests, beyond which
+ * the factor grows anyway, so that a noisy path does not flood the master
+ * - once the path delay is stable and the clock locked, the factor doubles after every request up to maxFactor, the
+ * burst budget is given back when maxFactor is reached
+ * The path delay is stable when at least MIN_SAMPLES delays were measured and the last one is within max(tolerance,
+ * 3 * mean deviation) of the moving average of the delays.
+ * The scheduler is used by the DELAY_REQUEST thread only, it is not thread-safe.
+ */
+public class DelayRequestScheduler {
+
+    // number of delays measured before the delay can be stable
+    private static final int MIN_SAMPLES = 4;
+    // weight of a new delay in the moving averages
+    private static final double SMOOTHING = 0.125;
+
+    private final int minFactor;
+    private final int maxFactor;
+    private final int burst;
+    private final long tolerance;
+    private final Random random = new Random();
+
+    private int factor;
+    private int burstLeft;
+    private int samples = 0;
+    private double meanDelay;
+    private double meanDeviation;
+    private boolean stable = false;
+
+    /**
+     * Constructor
+     * @param minFactor wait between two requests while converging, in sync intervals
+     * @param maxFactor longest wait between two requests, in sync intervals
+     * @param burst maximal number of requests in a row at minFactor
+     * @param tolerance change of the delay always considered stable, in nanoseconds
+     */
+    public DelayRequestScheduler(int minFactor, int maxFactor, int burst, long tolerance) {
+        if (minFactor < 1 || maxFactor < minFactor || burst < 0) {
+            throw new IllegalArgumentException("invalid schedule: " + minFactor + ", " + maxFactor + ", " + burst);
+        }
+        this.minFactor = minFactor;
+        this.maxFactor = maxFactor;
+        this.burst = burst;
+        this.tolerance = tolerance;
+        this.factor = minFactor;
+        this.burstLeft = burst;
+    }
+
+    /**
+     * Default constructor
+     * Bursts of 8 requests at every sync interval, backs off up to 32 intervals, 20 us of tolerance
+     */
+    public DelayRequestScheduler() {
+        this(1, 32, 8, 20_000L);
+    }
+
+    /**
+     * Records a measured path delay
+     * @param delay mean path delay, in nanoseconds
+     */
+    public void delayMeasured(long delay) {
+        if (samples == 0) {
+            meanDelay = delay;
+            meanDeviation = 0;
+        }
+        double deviation = Math.abs(delay - meanDelay);
+        stable = ++samples >= MIN_SAMPLES && deviation <= Math.max(tolerance, 3 * meanDeviation);
+        meanDelay += SMOOTHING * (delay - meanDelay);
+        meanDeviation += SMOOTHING * (deviation - meanDeviation);
+    }
+
+    /**
+     * Computes the wait before the next request
+     * @param interval sync interval, in milliseconds
+     * @param locked true if the clock of the slave is locked on the master
+     * @return the wait, in milliseconds
+     */
+    public long nextWait(int interval, boolean locked) {
+        if (stable && locked) {
+            factor = Math.min(maxFactor, factor * 2);
+            if (factor == maxFactor) {
+                burstLeft = burst;
+            }
+        } else if (burstLeft > 0) {
+            burstLeft--;
+            factor = minFactor;
+        } else {
+            factor = Math.min(maxFactor, factor * 2);
+        }
+        return (long) (factor * (long) interval * (0.5 + random.nextDouble()));
+    }
+
+    /**
+     * @return true if the last delay measured was stable
+     */
+    public boolean isStable() {
+        return stable;
+    }
+}
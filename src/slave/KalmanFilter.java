@@ -0,0 +1,136 @@
+package slave;
+
+/**
+ * This class is a {@link SampleFilter} tracking jointly the offset and the frequency drift of the local clock with a
+ * Kalman filter
+ *
+ * Description:
+ * The state is [offset (ns), drift (ns/s, i.e. ppb)] and evolves as offset += drift * dt between two samples, dt being
+ * the number of seconds elapsed. The process noise is the random walk of the offset (offsetNoise, ns^2/s) and of the
+ * drift (driftNoise, ppb^2/s), the measurement noise is the variance of an offset sample (measurementNoise, ns^2).
+ * Every sample first predicts the state at its local time, then corrects it with the measured offset. A sample whose
+ * innovation is beyond gate standard deviations is rejected: the prediction carries on, so a lost or delayed packet
+ * does not disturb the estimation. After too many rejections in a row the filter restarts from the next sample.
+ * Between the samples {@link #offset(long)} extrapolates the offset with the estimated drift.
+ * The methods are synchronized, nothing is allocated after the construction.
+ */
+public class KalmanFilter implements SampleFilter {
+
+    private static final double NANOS_PER_SECOND = 1e9;
+    // initial uncertainty of the drift: 100 ppm
+    private static final double INITIAL_DRIFT_VARIANCE = 1e5 * 1e5;
+    // number of rejections in a row after which the filter restarts
+    private static final int MAX_CONSECUTIVE_REJECTIONS = 8;
+
+    private final double offsetNoise;
+    private final double driftNoise;
+    private final double measurementNoise;
+    private final double gate;
+
+    private boolean initialized = false;
+    private long lastTime;
+    private double offset;
+    private double drift;
+    // covariance matrix [[p00, p01], [p01, p11]]
+    private double p00;
+    private double p01;
+    private double p11;
+    private int consecutiveRejections = 0;
+    private long rejected = 0;
+
+    /**
+     * Constructor
+     * @param offsetNoise process noise of the offset, in ns^2/s
+     * @param driftNoise process noise of the drift, in ppb^2/s
+     * @param measurementNoise variance of an offset sample, in ns^2
+     * @param gate number of standard deviations beyond which a sample is an outlier
+     */
+    public KalmanFilter(double offsetNoise, double driftNoise, double measurementNoise, double gate) {
+        this.offsetNoise = offsetNoise;
+        this.driftNoise = driftNoise;
+        this.measurementNoise = measurementNoise;
+        this.gate = gate;
+    }
+
+    /**
+     * Default constructor
+     * Samples with a standard deviation of 50 us, a slowly wandering oscillator, outliers beyond 5 deviations
+     */
+    public KalmanFilter() {
+        this(1e4, 1.0, 50_000.0 * 50_000.0, 5.0);
+    }
+
+    @Override
+    public synchronized boolean add(long localTime, long measuredOffset, long delay) {
+        if (!initialized) {
+            reset(localTime, measuredOffset);
+            return true;
+        }
+        predict(localTime);
+        double innovation = measuredOffset - offset;
+        double innovationVariance = p00 + measurementNoise;
+        if (innovation * innovation > gate * gate * innovationVariance) {
+            rejected++;
+            if (++consecutiveRejections > MAX_CONSECUTIVE_REJECTIONS) {
+                reset(localTime, measuredOffset);
+                return true;
+            }
+            return false;
+        }
+        consecutiveRejections = 0;
+        double k0 = p00 / innovationVariance;
+        double k1 = p01 / innovationVariance;
+        offset += k0 * innovation;
+        drift += k1 * innovation;
+        p11 -= k1 * p01;
+        p01 -= k0 * p01;
+        p00 -= k0 * p00;
+        return true;
+    }
+
+    private void reset(long localTime, long measuredOffset) {
+        initialized = true;
+        lastTime = localTime;
+        offset = measuredOffset;
+        drift = 0;
+        p00 = measurementNoise;
+        p01 = 0;
+        p11 = INITIAL_DRIFT_VARIANCE;
+        consecutiveRejections = 0;
+    }
+
+    private void predict(long localTime) {
+        double dt = (localTime - lastTime) / NANOS_PER_SECOND;
+        lastTime = localTime;
+        offset += drift * dt;
+        p00 += dt * (2 * p01 + dt * p11) + offsetNoise * dt;
+        p01 += dt * p11;
+        p11 += driftNoise * dt;
+    }
+
+    @Override
+    public synchronized long offset(long localTime) {
+        return (long) (offset + drift * (localTime - lastTime) / NANOS_PER_SECOND);
+    }
+
+    /**
+     * @return the estimated drift of the local clock, in parts per billion
+     */
+    public synchronized double drift() {
+        return drift;
+    }
+
+    /**
+     * @return the standard deviation of the estimated offset, in nanoseconds
+     */
+    public synchronized double offsetDeviation() {
+        return Math.sqrt(p00);
+    }
+
+    /**
+     * @return the number of samples rejected as outliers
+     */
+    public synchronized long rejected() {
+        return rejected;
+    }
+}
@@ -0,0 +1,181 @@
+package slave;
+
+import java.util.Arrays;
+
+/**
+ * This class is a {@link SampleFilter} selecting the offset in a sliding window of samples
+ *
+ * Description:
+ * The last windowSize samples (offset and mean path delay) are kept in a ring buffer of primitive arrays, the filtered
+ * offset is either the median of the window (MEDIAN) or the offset of the sample with the smallest path delay
+ * (MIN_DELAY), the sample which was the least delayed by the network. The slave passes the last mean path delay with
+ * each sample, which only changes with the next DELAY_RESPONSE, so equal delays are common: among them the newest
+ * sample is selected.
+ * Before being added, a sample is compared to the median of the last historySize raw samples, the rejected ones
+ * included: if it is further than madThreshold times their median absolute deviation (scaled to a standard
+ * deviation) it is rejected as an outlier. The test does not use the window itself, which only holds the accepted
+ * samples and would narrow after each rejection, and the history is longer than the window because the deviation of a
+ * few samples is too noisy: with 32 samples and 3 deviations about 1.3% of clean Gaussian samples are rejected (7%
+ * with 8 samples).
+ * If more than windowSize samples are rejected in a row, the next one is accepted anyway so that a real change of the
+ * offset is followed.
+ * All the arrays are allocated in the constructor, adding a sample does not allocate.
+ * The methods are synchronized.
+ */
+public class OffsetFilter implements SampleFilter {
+
+    /**
+     * How the filtered offset is selected in the window
+     */
+    public enum Mode {
+        MEDIAN,
+        MIN_DELAY
+    }
+
+    // scales the median absolute deviation to the standard deviation of a normal distribution
+    private static final double MAD_SCALE = 1.4826;
+    // number of raw samples needed before outliers are rejected
+    private static final int MIN_SAMPLES_FOR_REJECTION = 8;
+    // raw samples kept by default for the outlier test
+    private static final int DEFAULT_HISTORY_SIZE = 32;
+
+    private final Mode mode;
+    private final double madThreshold;
+    private final long[] offsets;
+    private final long[] delays;
+    private final long[] scratch;
+    private int head = 0;
+    private int count = 0;
+    // last raw offsets, accepted or not, for the outlier test
+    private final long[] history;
+    private int historyHead = 0;
+    private int historyCount = 0;
+    private int consecutiveRejections = 0;
+    private long rejected = 0;
+
+    /**
+     * Constructor
+     * @param windowSize number of accepted samples from which the offset is selected
+     * @param historySize number of raw samples from which the outliers are detected
+     * @param mode selection of the filtered offset
+     * @param madThreshold number of deviations beyond which a sample is an outlier
+     */
+    public OffsetFilter(int windowSize, int historySize, Mode mode, double madThreshold) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("the window must contain at least one sample: " + windowSize);
+        }
+        if (historySize < 1) {
+            throw new IllegalArgumentException("the history must contain at least one sample: " + historySize);
+        }
+        this.mode = mode;
+        this.madThreshold = madThreshold;
+        offsets = new long[windowSize];
+        delays = new long[windowSize];
+        history = new long[historySize];
+        scratch = new long[Math.max(windowSize, historySize)];
+    }
+
+    /**
+     * Constructor
+     * The outliers are detected from the last 32 raw samples, or windowSize if it is larger
+     * @param windowSize number of accepted samples from which the offset is selected
+     * @param mode selection of the filtered offset
+     * @param madThreshold number of deviations beyond which a sample is an outlier
+     */
+    public OffsetFilter(int windowSize, Mode mode, double madThreshold) {
+        this(windowSize, Math.max(windowSize, DEFAULT_HISTORY_SIZE), mode, madThreshold);
+    }
+
+    /**
+     * Default constructor
+     * Median of 8 samples, outliers beyond 3 deviations
+     */
+    public OffsetFilter() {
+        this(8, Mode.MEDIAN, 3.0);
+    }
+
+    @Override
+    public synchronized boolean add(long localTime, long offset, long delay) {
+        boolean outlier = isOutlier(offset);
+        history[historyHead] = offset;
+        historyHead = (historyHead + 1) % history.length;
+        if (historyCount < history.length) {
+            historyCount++;
+        }
+        if (outlier && consecutiveRejections < offsets.length) {
+            consecutiveRejections++;
+            rejected++;
+            return false;
+        }
+        consecutiveRejections = 0;
+        offsets[head] = offset;
+        delays[head] = delay;
+        head = (head + 1) % offsets.length;
+        if (count < offsets.length) {
+            count++;
+        }
+        return true;
+    }
+
+    private boolean isOutlier(long offset) {
+        if (historyCount < Math.min(MIN_SAMPLES_FOR_REJECTION, history.length)) {
+            return false;
+        }
+        long median = median(history, historyCount);
+        for (int i = 0; i < historyCount; i++) {
+            scratch[i] = Math.abs(history[i] - median);
+        }
+        long mad = sortedMedian(scratch, historyCount);
+        return Math.abs(offset - median) > madThreshold * MAD_SCALE * Math.max(mad, 1);
+    }
+
+    private long median(long[] values, int count) {
+        System.arraycopy(values, 0, scratch, 0, count);
+        return sortedMedian(scratch, count);
+    }
+
+    // sorts the first count values of the array and returns their median
+    private static long sortedMedian(long[] values, int count) {
+        Arrays.sort(values, 0, count);
+        int middle = count / 2;
+        return count % 2 == 1 ? values[middle] : values[middle - 1] + (values[middle] - values[middle - 1]) / 2;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The offset of the window does not depend on the local time.
+     */
+    @Override
+    public synchronized long offset(long localTime) {
+        if (count == 0) {
+            return 0;
+        }
+        if (mode == Mode.MIN_DELAY) {
+            // from the oldest sample to the newest, so that the ties go to the newest
+            int oldest = count < offsets.length ? 0 : head;
+            int best = oldest;
+            for (int k = 1; k < count; k++) {
+                int i = (oldest + k) % offsets.length;
+                if (delays[i] <= delays[best]) {
+                    best = i;
+                }
+            }
+            return offsets[best];
+        }
+        return median(offsets, count);
+    }
+
+    /**
+     * @return the number of samples in the window
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * @return the number of samples rejected as outliers
+     */
+    public synchronized long rejected() {
+        return rejected;
+    }
+}
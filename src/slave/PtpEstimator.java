@@ -0,0 +1,161 @@
+package slave;
+
+/**
+ * This class computes the offset and the mean path delay between the slave and the master from the four timestamps
+ * of the Precision Time Protocol (IEEE 1588)
+ *
+ * Description:
+ * - t1: master's time when the SYNC was sent, carried by the FOLLOW_UP
+ * - t2: slave's time when the SYNC arrived
+ * - t3: slave's time when the DELAY_REQUEST was sent
+ * - t4: master's time when the DELAY_REQUEST arrived, carried by the DELAY_RESPONSE
+ * t2 and t3 are read from the raw local clock, never from an already corrected time.
+ * mean path delay = ((t2 - t1) + (t4 - t3)) / 2
+ * offset = (t2 - t1) - mean path delay, the slave is ahead of the master when the offset is positive
+ * The delay is computed when a DELAY_RESPONSE arrives, with the last complete SYNC/FOLLOW_UP exchange, and the offset
+ * is computed when a FOLLOW_UP arrives, with the last delay. Until the first delay is known the offset is t2 - t1.
+ * A negative delay is impossible, it means that the clock of the slave or of the master stepped between the two
+ * exchanges: it is rejected and the previous delay is kept.
+ * The DELAY_RESPONSE is either matched here with the last DELAY_REQUEST sent, or by the caller when several requests
+ * are in flight (see {@link DelayRequestCorrelator}).
+ * All the times count nanoseconds. The methods are called by the listening and the sending threads, they are
+ * synchronized.
+ */
+public class PtpEstimator {
+
+    // last SYNC received, waiting for its FOLLOW_UP
+    private long syncId = -1;
+    private long pendingT2;
+    // last complete SYNC/FOLLOW_UP exchange
+    private boolean syncComplete = false;
+    private long t1;
+    private long t2;
+    // last DELAY_REQUEST sent, waiting for its DELAY_RESPONSE
+    private long delayId = -1;
+    private long t3;
+    // last complete DELAY_REQUEST/DELAY_RESPONSE exchange
+    private long completedT3;
+    private long t4;
+    private boolean delayKnown = false;
+    private long meanPathDelay;
+    private long offset;
+
+    /**
+     * Records the arrival of a SYNC
+     * @param id id of the SYNC
+     * @param t2 local time of arrival
+     */
+    public synchronized void syncReceived(long id, long t2) {
+        this.syncId = id;
+        this.pendingT2 = t2;
+    }
+
+    /**
+     * Records a FOLLOW_UP and computes the offset if it matches the last SYNC
+     * @param id id of the SYNC followed
+     * @param t1 master's time when the SYNC was sent
+     * @return true if the FOLLOW_UP matched the last SYNC and the offset was updated
+     */
+    public synchronized boolean followUpReceived(long id, long t1) {
+        if (id != syncId) {
+            return false;
+        }
+        this.t1 = t1;
+        this.t2 = pendingT2;
+        syncComplete = true;
+        offset = (t2 - t1) - (delayKnown ? meanPathDelay : 0);
+        return true;
+    }
+
+    /**
+     * Records the sending of a DELAY_REQUEST
+     * @param id id of the request
+     * @param t3 local time of sending
+     */
+    public synchronized void delayRequestSent(long id, long t3) {
+        this.delayId = id;
+        this.t3 = t3;
+    }
+
+    /**
+     * Records a DELAY_RESPONSE and computes the mean path delay if it matches the last DELAY_REQUEST
+     * @param id id of the request answered
+     * @param t4 master's time when the request arrived
+     * @return true if the response matched the last request and the delay was updated
+     */
+    public synchronized boolean delayResponseReceived(long id, long t4) {
+        return id == delayId && delayExchangeCompleted(t3, t4);
+    }
+
+    /**
+     * Computes the mean path delay from a complete DELAY_REQUEST/DELAY_RESPONSE exchange, matched by the caller
+     * @param t3 local time of sending of the request
+     * @param t4 master's time when the request arrived
+     * @return true if the delay was updated, false if no SYNC/FOLLOW_UP exchange is complete yet or if the delay
+     * computed is negative
+     */
+    public synchronized boolean delayExchangeCompleted(long t3, long t4) {
+        if (!syncComplete) {
+            return false;
+        }
+        long delay = ((t2 - t1) + (t4 - t3)) / 2;
+        if (delay < 0) {
+            return false;
+        }
+        this.completedT3 = t3;
+        this.t4 = t4;
+        meanPathDelay = delay;
+        offset = (t2 - t1) - meanPathDelay;
+        delayKnown = true;
+        return true;
+    }
+
+    /**
+     * @return true once a mean path delay was computed
+     */
+    public synchronized boolean isDelayKnown() {
+        return delayKnown;
+    }
+
+    /**
+     * @return the last mean path delay, in nanoseconds
+     */
+    public synchronized long meanPathDelay() {
+        return meanPathDelay;
+    }
+
+    /**
+     * @return the local time of arrival of the SYNC of the last complete exchange, t2, in nanoseconds
+     */
+    public synchronized long syncArrival() {
+        return t2;
+    }
+
+    /**
+     * @return the master's time of sending of the SYNC of the last complete exchange, t1, in nanoseconds
+     */
+    public synchronized long syncDeparture() {
+        return t1;
+    }
+
+    /**
+     * @return the local time of sending of the DELAY_REQUEST of the last delay computed, t3, in nanoseconds
+     */
+    public synchronized long delayRequestDeparture() {
+        return completedT3;
+    }
+
+    /**
+     * @return the master's time of arrival of the DELAY_REQUEST of the last delay computed, t4, in nanoseconds
+     */
+    public synchronized long delayRequestArrival() {
+        return t4;
+    }
+
+    /**
+     * @return the last offset of the slave from the master, in nanoseconds
+     */
+    public synchronized long offset() {
+        return offset;
+    }
+}
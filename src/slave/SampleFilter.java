@@ -0,0 +1,24 @@
+package slave;
+
+/**
+ * This interface is the stage between the {@link PtpEstimator} and the {@link ClockServo}
+ * It receives every offset sample measured and gives the offset which is fed to the servo.
+ */
+public interface SampleFilter {
+
+    /**
+     * Adds a sample
+     * @param localTime local time of the measurement, in nanoseconds
+     * @param offset offset of the slave from the master, in nanoseconds
+     * @param delay mean path delay of the sample, in nanoseconds
+     * @return true if the sample was accepted, false if it was rejected as an outlier
+     */
+    boolean add(long localTime, long offset, long delay);
+
+    /**
+     * Gives the filtered offset
+     * @param localTime local time at which the offset is wanted, in nanoseconds
+     * @return the filtered offset, in nanoseconds
+     */
+    long offset(long localTime);
+}
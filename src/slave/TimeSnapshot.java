@@ -0,0 +1,106 @@
+package slave;
+
+/**
+ * This class is an immutable snapshot of the time state of the slave
+ *
+ * Description:
+ * A snapshot holds everything needed to compute the corrected time from a local time: the logical clock of the
+ * {@link ClockServo} (logical = logicalRef + (local - localRef) * (1 + frequency)), together with the offset, the
+ * mean path delay and the drift measured when it was taken, its epoch (incremented on each publication) and the
+ * quality of the synchronization.
+ * The slave publishes a new snapshot through a single volatile reference after every sample. Since a snapshot never
+ * changes, any number of threads can read the reference and compute the time without locks and without seeing a torn
+ * state.
+ */
+public final class TimeSnapshot {
+
+    /**
+     * Quality of the synchronization
+     * - UNSYNCHRONIZED: no offset was measured yet, the corrected time is the local time
+     * - UNLOCKED: the servo has stepped the clock recently or the error is too large
+     * - LOCKED: the error stays below the lock threshold of the servo
+     */
+    public enum Quality {
+        UNSYNCHRONIZED,
+        UNLOCKED,
+        LOCKED
+    }
+
+    /**
+     * Snapshot published before the first sample
+     */
+    public static final TimeSnapshot UNSYNCHRONIZED = new TimeSnapshot(0, 0, 0, 0, 0, 0, Quality.UNSYNCHRONIZED);
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final long epoch;
+    private final long localRef;
+    private final long logicalRef;
+    private final double frequency;
+    private final long offset;
+    private final long delay;
+    private final Quality quality;
+
+    /**
+     * Constructor
+     * @param epoch number of the snapshot
+     * @param localRef local time of the anchor of the logical clock, in nanoseconds
+     * @param logicalRef logical time of the anchor of the logical clock, in nanoseconds
+     * @param frequency frequency adjustment of the logical clock, in parts per billion
+     * @param offset filtered offset of the slave from the master, in nanoseconds
+     * @param delay mean path delay, in nanoseconds
+     * @param quality quality of the synchronization
+     */
+    public TimeSnapshot(long epoch, long localRef, long logicalRef, double frequency, long offset, long delay,
+                        Quality quality) {
+        this.epoch = epoch;
+        this.localRef = localRef;
+        this.logicalRef = logicalRef;
+        this.frequency = frequency;
+        this.offset = offset;
+        this.delay = delay;
+        this.quality = quality;
+    }
+
+    /**
+     * Computes the corrected time
+     * @param localTime local time, in nanoseconds
+     * @return the corrected time, in nanoseconds
+     */
+    public long time(long localTime) {
+        if (quality == Quality.UNSYNCHRONIZED) {
+            return localTime;
+        }
+        long elapsed = localTime - localRef;
+        return logicalRef + elapsed + (long) (elapsed * frequency / NANOS_PER_SECOND);
+    }
+
+    public long epoch() {
+        return epoch;
+    }
+
+    public long offset() {
+        return offset;
+    }
+
+    public long delay() {
+        return delay;
+    }
+
+    /**
+     * @return the drift of the local clock compensated by the logical clock, in parts per billion
+     */
+    public double drift() {
+        return -frequency;
+    }
+
+    public Quality quality() {
+        return quality;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + epoch + "] " + quality + " offset: " + offset + " ns, delay: " + delay + " ns, drift: "
+                + (long) drift() + " ppb";
+    }
+}
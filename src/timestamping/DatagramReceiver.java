@@ -0,0 +1,81 @@
+package timestamping;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * This interface receives the datagrams of a port and tells how long ago each of them reached the host
+ *
+ * Description:
+ * A datagram stamped in user space after the receive call returns carries the latency of the wakeup and the
+ * scheduling of the receiving thread. The age of a datagram is the time elapsed between its reception by the kernel
+ * and the return of {@link #receive()}, the caller subtracts it from its own reading of the time:
+ * arrival = timeSource.currentTimeNanos() - receiver.age()
+ * This works with any {@link clock.TimeSource}, the age being a difference of two readings of the same clock.
+ * Implementations:
+ * - {@link SocketReceiver}: {@link java.net.MulticastSocket}, the age is always 0
+ * - {@link KernelTimestampReceiver}: recvmsg with the SO_TIMESTAMPNS kernel timestamps, Linux only
+ * Use {@link #open(int, InetAddress, boolean)} to get the best available one.
+ */
+public interface DatagramReceiver extends Closeable {
+
+    /**
+     * Blocks until a datagram is received
+     * @return the buffer of the receiver, position 0 and limit the length of the datagram, valid until the next call
+     * @throws IOException if the socket fails or is closed
+     */
+    ByteBuffer receive() throws IOException;
+
+    /**
+     * @return the time elapsed between the reception of the last datagram by the kernel and the return of
+     * {@link #receive()}, in nanoseconds, 0 if unknown
+     */
+    long age();
+
+    /**
+     * @return the address of the sender of the last datagram
+     */
+    InetAddress sourceAddress();
+
+    /**
+     * @return the local port of the socket, useful when it was opened on the port 0
+     */
+    int localPort();
+
+    /**
+     * @return true if {@link #receive()} blocks in native code, pinning the carrier of a virtual thread
+     */
+    default boolean pinsThread() {
+        return false;
+    }
+
+    /**
+     * Wakes up a thread blocked in {@link #receive()}, which then throws an {@link IOException}
+     * The receiver must still be closed, by the receiving thread once {@link #receive()} returned. By default the
+     * receiver is closed at once, for the sockets which can be closed while another thread receives.
+     * @throws IOException if the socket fails
+     */
+    default void shutdown() throws IOException {
+        close();
+    }
+
+    /**
+     * Opens a receiver, with the kernel timestamps if they are asked and available, with a socket otherwise
+     * @param port port to listen to
+     * @param group multicast group to join, null for none
+     * @param kernelTimestamps true to try the kernel timestamps first
+     * @return the receiver
+     * @throws IOException if the socket cannot be opened
+     */
+    static DatagramReceiver open(int port, InetAddress group, boolean kernelTimestamps) throws IOException {
+        if (kernelTimestamps) {
+            DatagramReceiver receiver = KernelTimestampReceiver.tryOpen(port, group);
+            if (receiver != null) {
+                return receiver;
+            }
+        }
+        return new SocketReceiver(port, group);
+    }
+}
@@ -0,0 +1,173 @@
+package timestamping;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class is a {@link DatagramReceiver} using the receive timestamps of the Linux kernel
+ *
+ * Description:
+ * The socket is opened by the native library ptptimestamping (native/ptp_timestamping.c) with the SO_TIMESTAMPNS
+ * option, and read with recvmsg: the kernel stamps every datagram with CLOCK_REALTIME when it reaches the socket and
+ * passes the timestamp as a control message. Right before returning, the native code reads CLOCK_REALTIME again, the
+ * difference is the age of the datagram, free of the wakeup and scheduling latency of the receiving thread.
+ * Only IPv4 is supported. The library is built with native/Makefile and found through java.library.path, when it is
+ * missing or the socket cannot be opened {@link #tryOpen(int, InetAddress)} returns null and the caller falls back to
+ * a {@link SocketReceiver}. A datagram without timestamp has an age of 0.
+ */
+public class KernelTimestampReceiver implements DatagramReceiver {
+
+    private static final Logger LOG = Logger.getLogger(KernelTimestampReceiver.class.getName());
+    private static final int BUFFER_SIZE = 256;
+    private static final boolean AVAILABLE = load();
+
+    private final int fd;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    // kernel timestamp, time of return, source address and port of the last datagram
+    private final long[] result = new long[4];
+    private final byte[] sourceBytes = new byte[4];
+    private InetAddress sourceAddress;
+    private long sourceAddressBits = -1;
+    // set by shutdown and close, a receive which returns afterwards fails
+    private volatile boolean shutdown = false;
+    private boolean closed = false;
+
+    private static boolean load() {
+        if (!System.getProperty("os.name", "").toLowerCase().contains("linux")) {
+            return false;
+        }
+        try {
+            System.loadLibrary("ptptimestamping");
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            LOG.log(Level.INFO, () -> "kernel timestamps unavailable: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the native library is loaded
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Opens a receiver if the kernel timestamps are available
+     * @param port port to listen to
+     * @param group IPv4 multicast group to join, null for none
+     * @return the receiver, null if the library is missing or the socket cannot be opened
+     */
+    public static KernelTimestampReceiver tryOpen(int port, InetAddress group) {
+        if (!AVAILABLE || (group != null && !(group instanceof Inet4Address))) {
+            return null;
+        }
+        try {
+            return new KernelTimestampReceiver(port, group);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private KernelTimestampReceiver(int port, InetAddress group) throws IOException {
+        int groupBits = 0;
+        if (group != null) {
+            byte[] bytes = group.getAddress();
+            groupBits = (bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | (bytes[3] & 0xff);
+        }
+        fd = open0(port, groupBits);
+    }
+
+    @Override
+    public ByteBuffer receive() throws IOException {
+        if (shutdown) {
+            throw new IOException("receiver shut down");
+        }
+        int length = receive0(fd, buffer, BUFFER_SIZE, result);
+        // the socket was shut down while waiting
+        if (shutdown) {
+            throw new IOException("receiver shut down");
+        }
+        buffer.clear();
+        buffer.limit(length);
+        return buffer;
+    }
+
+    @Override
+    public long age() {
+        return result[0] == 0 ? 0 : Math.max(0, result[1] - result[0]);
+    }
+
+    @Override
+    public boolean pinsThread() {
+        return true;
+    }
+
+    @Override
+    public InetAddress sourceAddress() {
+        // the address is only built when the sender changes
+        if (result[2] != sourceAddressBits) {
+            sourceAddressBits = result[2];
+            sourceBytes[0] = (byte) (sourceAddressBits >>> 24);
+            sourceBytes[1] = (byte) (sourceAddressBits >>> 16);
+            sourceBytes[2] = (byte) (sourceAddressBits >>> 8);
+            sourceBytes[3] = (byte) sourceAddressBits;
+            try {
+                sourceAddress = InetAddress.getByAddress(sourceBytes);
+            } catch (UnknownHostException e) {
+                LOG.log(Level.SEVERE, e.getMessage(), e);
+            }
+        }
+        return sourceAddress;
+    }
+
+    @Override
+    public int localPort() {
+        try {
+            return localPort0(fd);
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, e.getMessage(), e);
+            return -1;
+        }
+    }
+
+    /**
+     * Shuts the socket down without closing it, a thread blocked in {@link #receive()} gets an {@link IOException}
+     * The descriptor stays open, so that it cannot be reused by another socket while the thread is still in recvmsg
+     */
+    @Override
+    public synchronized void shutdown() {
+        if (!shutdown) {
+            shutdown = true;
+            shutdown0(fd);
+        }
+    }
+
+    /**
+     * Closes the socket, once no thread is in {@link #receive()}, see {@link #shutdown()}
+     */
+    @Override
+    public synchronized void close() {
+        if (!closed) {
+            shutdown = true;
+            closed = true;
+            close0(fd);
+        }
+    }
+
+    private static native int open0(int port, int group) throws IOException;
+
+    private static native int receive0(int fd, ByteBuffer buffer, int capacity, long[] result) throws IOException;
+
+    private static native int localPort0(int fd) throws IOException;
+
+    private static native void shutdown0(int fd);
+
+    private static native void close0(int fd);
+}
@@ -0,0 +1,74 @@
+package timestamping;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.nio.ByteBuffer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class is a {@link DatagramReceiver} reading a {@link MulticastSocket}
+ * The datagrams are stamped in user space: the age is always 0.
+ */
+public class SocketReceiver implements DatagramReceiver {
+
+    private static final Logger LOG = Logger.getLogger(SocketReceiver.class.getName());
+    private static final int BUFFER_SIZE = 256;
+
+    private final MulticastSocket socket;
+    private final InetAddress group;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final DatagramPacket packet = new DatagramPacket(buffer.array(), BUFFER_SIZE);
+
+    /**
+     * Constructor
+     * @param port port to listen to
+     * @param group multicast group to join, null for none
+     * @throws IOException if the socket cannot be opened or the group joined
+     */
+    public SocketReceiver(int port, InetAddress group) throws IOException {
+        this.group = group;
+        socket = new MulticastSocket(port);
+        if (group != null) {
+            socket.joinGroup(group);
+        }
+    }
+
+    @Override
+    public ByteBuffer receive() throws IOException {
+        packet.setLength(BUFFER_SIZE);
+        socket.receive(packet);
+        buffer.clear();
+        buffer.limit(packet.getLength());
+        return buffer;
+    }
+
+    @Override
+    public long age() {
+        return 0;
+    }
+
+    @Override
+    public InetAddress sourceAddress() {
+        return packet.getAddress();
+    }
+
+    @Override
+    public int localPort() {
+        return socket.getLocalPort();
+    }
+
+    @Override
+    public void close() {
+        if (group != null && !socket.isClosed()) {
+            try {
+                socket.leaveGroup(group);
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, e.getMessage(), e);
+            }
+        }
+        socket.close();
+    }
+}
@@ -0,0 +1,136 @@
+package boundary;
+
+import clock.MonotonicTimeSource;
+import clock.TimeSource;
+import master.Server;
+import org.junit.Test;
+import protocol.Protocol;
+import protocol.ProtocolCodec;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of {@link BoundaryClock}
+ */
+public class BoundaryClockTest {
+
+    private static final int BUFFER_SIZE = 256;
+    // ports and groups of the tests, away from the ones of a master or a boundary clock running on the host
+    private static final int UPSTREAM_SYNC_PORT = 44445;
+    private static final int UPSTREAM_DELAY_REQUEST_PORT = 44446;
+    private static final int DOWNSTREAM_SYNC_PORT = 44447;
+    private static final int DOWNSTREAM_DELAY_REQUEST_PORT = 44448;
+    private static final String UPSTREAM_GROUP = "228.5.6.11";
+    private static final String DOWNSTREAM_GROUP = "228.5.6.12";
+    private static final int SYNC_INTERVAL = 50;
+    // the master is an hour ahead of the local clock, so that the two cannot be mistaken
+    private static final long MASTER_OFFSET = TimeUnit.HOURS.toNanos(1);
+    private static final long TOLERANCE = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final String SYNCS_SENT = "ptp_master_syncs_sent_total";
+
+    private final TimeSource local = new MonotonicTimeSource();
+
+    private BoundaryClock boundaryClock() throws IOException {
+        BoundaryClock boundaryClock = new BoundaryClock(InetAddress.getByName(UPSTREAM_GROUP),
+                InetAddress.getByName(DOWNSTREAM_GROUP), SYNC_INTERVAL);
+        boundaryClock.getUpstream().setPorts(UPSTREAM_SYNC_PORT, UPSTREAM_DELAY_REQUEST_PORT);
+        boundaryClock.getUpstream().setTimeSource(local);
+        boundaryClock.getDownstream().setPorts(DOWNSTREAM_SYNC_PORT, DOWNSTREAM_DELAY_REQUEST_PORT);
+        return boundaryClock;
+    }
+
+    /**
+     * Receives the FOLLOW_UPs of the downstream side and checks that they carry the time of the upstream master
+     */
+    @Test
+    public void downstreamServesTheUpstreamTime() throws Exception {
+        InetAddress downstreamGroup = InetAddress.getByName(DOWNSTREAM_GROUP);
+        try (Server master = new Server(InetAddress.getByName(UPSTREAM_GROUP), SYNC_INTERVAL);
+             BoundaryClock boundaryClock = boundaryClock();
+             MulticastSocket socket = new MulticastSocket(DOWNSTREAM_SYNC_PORT)) {
+            master.setPorts(UPSTREAM_SYNC_PORT, UPSTREAM_DELAY_REQUEST_PORT);
+            master.setTimeSource(() -> local.currentTimeNanos() + MASTER_OFFSET);
+            master.start();
+            socket.joinGroup(downstreamGroup);
+            socket.setSoTimeout(100);
+            boundaryClock.setLockTimeout(5000);
+            boundaryClock.start();
+            assertTrue("no snapshot published", boundaryClock.getUpstream().getSnapshot().epoch() > 0);
+
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            DatagramPacket packet = new DatagramPacket(buffer.array(), BUFFER_SIZE);
+            ProtocolCodec codec = new ProtocolCodec();
+            int followUps = 0;
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (followUps < 5 && end - System.nanoTime() > 0) {
+                packet.setLength(BUFFER_SIZE);
+                try {
+                    socket.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    continue;
+                }
+                long masterTime = local.currentTimeNanos() + MASTER_OFFSET;
+                buffer.clear();
+                buffer.limit(packet.getLength());
+                if (codec.decode(buffer) && codec.command() == Protocol.FOLLOW_UP) {
+                    long error = codec.timestamp() - masterTime;
+                    assertTrue("FOLLOW_UP " + error + " ns away from the master", Math.abs(error) < TOLERANCE);
+                    followUps++;
+                }
+            }
+            assertEquals(5, followUps);
+            long error = boundaryClock.getUpstream().currentTimeNanos() - local.currentTimeNanos() - MASTER_OFFSET;
+            assertTrue("upstream " + error + " ns away from the master", Math.abs(error) < TOLERANCE);
+        }
+    }
+
+    @Test
+    public void startWaitsForTheLockTimeoutWithoutAMaster() throws Exception {
+        try (BoundaryClock boundaryClock = boundaryClock()) {
+            boundaryClock.setLockTimeout(300);
+            long begin = System.nanoTime();
+            boundaryClock.start();
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+            assertTrue("started after " + elapsed + " ms", elapsed >= 300 && elapsed < 2000);
+            // the downstream side serves the free-running clock once the timeout is reached
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (boundaryClock.getDownstream().getMetrics().counter(SYNCS_SENT).getValue() == 0
+                    && end - System.nanoTime() > 0) {
+                Thread.sleep(SYNC_INTERVAL);
+            }
+            assertTrue(boundaryClock.getDownstream().getMetrics().counter(SYNCS_SENT).getValue() > 0);
+        }
+    }
+
+    @Test
+    public void closeWhileWaitingForTheLockDoesNotStartTheDownstreamSide() throws Exception {
+        BoundaryClock boundaryClock = boundaryClock();
+        boundaryClock.setLockTimeout(60_000);
+        Thread starter = new Thread(() -> {
+            try {
+                boundaryClock.start();
+            } catch (InterruptedException e) {
+                fail("interrupted");
+            }
+        });
+        starter.start();
+        Thread.sleep(300);
+        assertTrue(starter.isAlive());
+        boundaryClock.close();
+        starter.join(2000);
+        assertFalse("start() still waiting after close()", starter.isAlive());
+        Thread.sleep(3 * SYNC_INTERVAL);
+        assertEquals(0, boundaryClock.getDownstream().getMetrics().counter(SYNCS_SENT).getValue());
+    }
+}
@@ -0,0 +1,55 @@
+package eventlog;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link EventLog}
+ */
+public class EventLogTest {
+
+    @Test
+    public void parkedReaderIsWokenUpByTheWriters() throws Exception {
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.ALL);
+        CountDownLatch formatted = new CountDownLatch(1000);
+        logger.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                formatted.countDown();
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        EventLog eventLog = new EventLog(logger);
+        Thread reader = new Thread(eventLog);
+        reader.start();
+        for (int i = 0; i < 1000; i++) {
+            eventLog.log(Event.DELAY, i, i);
+            // lets the reader empty the ring and park
+            if (i % 100 == 0) {
+                Thread.sleep(20);
+            }
+        }
+        assertTrue("records left in the ring", formatted.await(2, TimeUnit.SECONDS));
+        eventLog.stop();
+        reader.join(2000);
+        assertFalse("reader still running after the stop", reader.isAlive());
+    }
+}
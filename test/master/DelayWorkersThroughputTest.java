@@ -0,0 +1,118 @@
+package master;
+
+import org.junit.Test;
+import protocol.Protocol;
+import protocol.ProtocolCodec;
+import protocol.TimestampFormat;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the DELAY_REQUESTs answered per second by the {@link Server} with 1, 2 and 4 workers
+ * Several closed-loop slaves each send a DELAY_REQUEST and wait for its DELAY_RESPONSE before the next one. Every
+ * request must be answered, and the workers must keep at least MIN_RATIO of the rate of the single listener.
+ * No speed-up is asserted: the single {@link Server} dispatcher receives every request, so the receive side does not
+ * scale with the workers.
+ */
+public class DelayWorkersThroughputTest {
+
+    private static final int SYNC_PORT = 14445;
+    private static final int DELAY_REQUEST_PORT = 14446;
+    private static final int SLAVES = 8;
+    private static final long WARMUP_MILLIS = 500;
+    private static final long MEASURE_MILLIS = 1500;
+    private static final int BUFFER_SIZE = 256;
+    // the hand-off to the workers must not cost more than half of the throughput
+    private static final double MIN_RATIO = 0.5;
+
+    /**
+     * Drives the load on a master with the given number of workers
+     * @param workers number of workers of the master
+     * @return the DELAY_RESPONSEs received per second
+     */
+    private double responsesPerSecond(int workers) throws Exception {
+        try (Server server = new Server()) {
+            server.setPorts(SYNC_PORT, DELAY_REQUEST_PORT);
+            server.setNonBlocking(true);
+            server.setDelayWorkers(workers);
+            server.start();
+
+            AtomicLong received = new AtomicLong();
+            AtomicLong lost = new AtomicLong();
+            long start = System.nanoTime();
+            long measureStart = start + WARMUP_MILLIS * 1_000_000L;
+            long end = measureStart + MEASURE_MILLIS * 1_000_000L;
+            Thread[] slaves = new Thread[SLAVES];
+            for (int i = 0; i < SLAVES; i++) {
+                slaves[i] = new Thread(() -> runSlave(measureStart, end, received, lost));
+                slaves[i].start();
+            }
+            for (Thread slave : slaves) {
+                slave.join();
+            }
+            double rate = received.get() * 1000.0 / MEASURE_MILLIS;
+            assertTrue("no DELAY_RESPONSE with " + workers + " worker(s)", received.get() > 0);
+            assertEquals("DELAY_REQUESTs lost with " + workers + " worker(s)", 0, lost.get());
+            assertEquals(0, server.getMetrics().counter("ptp_master_delay_requests_dropped_total").getValue());
+            return rate;
+        }
+    }
+
+    /**
+     * Sends DELAY_REQUESTs one at a time until the end of the measure
+     * @param measureStart time from which the responses are counted, from System.nanoTime()
+     * @param end end of the measure, from System.nanoTime()
+     * @param received number of responses received during the measure
+     * @param lost number of requests left unanswered
+     */
+    private static void runSlave(long measureStart, long end, AtomicLong received, AtomicLong lost) {
+        try (DatagramSocket socket = new DatagramSocket()) {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), DELAY_REQUEST_PORT));
+            socket.setSoTimeout(1000);
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            DatagramPacket packet = new DatagramPacket(buffer.array(), BUFFER_SIZE);
+            ProtocolCodec codec = new ProtocolCodec();
+            long id = 0;
+            long now;
+            while ((now = System.nanoTime()) < end) {
+                ProtocolCodec.encodeDelayRequest(buffer, ++id, TimestampFormat.NANOS);
+                packet.setLength(buffer.limit());
+                socket.send(packet);
+                packet.setLength(BUFFER_SIZE);
+                try {
+                    socket.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    lost.incrementAndGet();
+                    continue;
+                }
+                buffer.clear();
+                buffer.limit(packet.getLength());
+                if (codec.decode(buffer) && codec.command() == Protocol.DELAY_RESPONSE && codec.id() == id
+                        && now >= measureStart) {
+                    received.incrementAndGet();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void workersAnswerEveryRequestWithoutLosingThroughput() throws Exception {
+        double one = responsesPerSecond(1);
+        for (int workers : new int[] {2, 4}) {
+            double rate = responsesPerSecond(workers);
+            assertTrue(workers + " workers answer " + rate + "/s, 1 worker " + one + "/s", rate >= MIN_RATIO * one);
+        }
+    }
+}
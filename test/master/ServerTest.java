@@ -0,0 +1,158 @@
+package master;
+
+import org.junit.Test;
+import protocol.Protocol;
+import protocol.ProtocolCodec;
+import protocol.TimestampFormat;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of {@link Server}
+ */
+public class ServerTest {
+
+    private static final int BUFFER_SIZE = 256;
+    // ports of the tests, away from the ones of a master running on the host
+    private static final int SYNC_PORT = 24445;
+    private static final int DELAY_REQUEST_PORT = 24446;
+    private static final String GROUP = "228.5.6.9";
+    private static final int SYNC_INTERVAL = 50;
+    private static final long LISTEN_MILLIS = 1000;
+
+    /**
+     * Sends a REGISTER with an invalid port, then checks that the DELAY_REQUESTs are still answered
+     * @param nonBlocking true for the {@link Server}'s non-blocking engine
+     * @param workers number of workers answering the DELAY_REQUESTs
+     */
+    private void invalidRegisterDoesNotStopTheListener(boolean nonBlocking, int workers) throws IOException {
+        try (Server server = new Server(); DatagramSocket socket = new DatagramSocket()) {
+            server.setPorts(SYNC_PORT, DELAY_REQUEST_PORT);
+            server.setUnicast(true);
+            server.setNonBlocking(nonBlocking);
+            server.setDelayWorkers(workers);
+            server.start();
+            socket.setSoTimeout(2000);
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            DatagramPacket packet = new DatagramPacket(buffer.array(), 0, InetAddress.getLoopbackAddress(),
+                    DELAY_REQUEST_PORT);
+            ProtocolCodec.encodeRegister(buffer, 1, 70_000, 30_000);
+            packet.setLength(buffer.limit());
+            socket.send(packet);
+            ProtocolCodec.encodeDelayRequest(buffer, 7, TimestampFormat.NANOS);
+            packet.setLength(buffer.limit());
+            socket.send(packet);
+
+            ProtocolCodec codec = new ProtocolCodec();
+            while (true) {
+                packet.setLength(BUFFER_SIZE);
+                try {
+                    socket.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    fail("no DELAY_RESPONSE after an invalid REGISTER");
+                }
+                buffer.clear();
+                buffer.limit(packet.getLength());
+                if (codec.decode(buffer) && codec.command() == Protocol.DELAY_RESPONSE) {
+                    assertEquals(7, codec.id());
+                    return;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void invalidRegisterDoesNotStopTheBlockingListener() throws IOException {
+        invalidRegisterDoesNotStopTheListener(false, 1);
+    }
+
+    @Test
+    public void invalidRegisterDoesNotStopTheNonBlockingListener() throws IOException {
+        invalidRegisterDoesNotStopTheListener(true, 1);
+    }
+
+    @Test
+    public void invalidRegisterDoesNotStopTheDelayWorkers() throws IOException {
+        invalidRegisterDoesNotStopTheListener(true, 2);
+    }
+
+    /**
+     * Runs a master in a sync mode and counts the SYNC messages it multicasts
+     * @param syncMode sync mode of the master
+     * @return the number of SYNC, SYNC_ONE_STEP and FOLLOW_UP messages received, then the number of SYNCs and of
+     * packets counted by the master
+     */
+    private long[] countSyncMessages(SyncMode syncMode) throws IOException {
+        InetAddress group = InetAddress.getByName(GROUP);
+        long[] counts = new long[5];
+        try (MulticastSocket socket = new MulticastSocket(SYNC_PORT)) {
+            socket.joinGroup(group);
+            socket.setSoTimeout(100);
+            Server server = new Server(group, SYNC_INTERVAL);
+            try {
+                server.setPorts(SYNC_PORT, DELAY_REQUEST_PORT);
+                server.setSyncMode(syncMode);
+                server.start();
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                DatagramPacket packet = new DatagramPacket(buffer.array(), BUFFER_SIZE);
+                ProtocolCodec codec = new ProtocolCodec();
+                long end = System.nanoTime() + LISTEN_MILLIS * 1_000_000L;
+                while (end - System.nanoTime() > 0) {
+                    packet.setLength(BUFFER_SIZE);
+                    try {
+                        socket.receive(packet);
+                    } catch (SocketTimeoutException e) {
+                        continue;
+                    }
+                    buffer.clear();
+                    buffer.limit(packet.getLength());
+                    if (codec.decode(buffer)) {
+                        if (codec.command() == Protocol.SYNC) {
+                            counts[0]++;
+                        } else if (codec.command() == Protocol.SYNC_ONE_STEP) {
+                            counts[1]++;
+                        } else if (codec.command() == Protocol.FOLLOW_UP) {
+                            counts[2]++;
+                        }
+                    }
+                }
+            } finally {
+                server.close();
+            }
+            counts[3] = server.getMetrics().counter("ptp_master_syncs_sent_total").getValue();
+            counts[4] = server.getMetrics().counter("ptp_master_sync_packets_sent_total").getValue();
+        }
+        return counts;
+    }
+
+    @Test
+    public void twoStepModeSendsASyncAndAFollowUpPerInterval() throws IOException {
+        long[] counts = countSyncMessages(SyncMode.TWO_STEP);
+        assertTrue("no SYNC received", counts[0] > 0);
+        assertTrue(counts[0] + " SYNCs", counts[0] <= LISTEN_MILLIS / SYNC_INTERVAL + 1);
+        assertEquals(0, counts[1]);
+        // the last FOLLOW_UP may be received after the end of the listening
+        assertTrue(counts[0] + " SYNCs, " + counts[2] + " FOLLOW_UPs", counts[0] - counts[2] <= 1);
+        assertEquals(2 * counts[3], counts[4]);
+    }
+
+    @Test
+    public void oneStepModeHalvesTheSyncPackets() throws IOException {
+        long[] counts = countSyncMessages(SyncMode.ONE_STEP);
+        assertTrue("no SYNC_ONE_STEP received", counts[1] > 0);
+        assertTrue(counts[1] + " SYNC_ONE_STEPs", counts[1] <= LISTEN_MILLIS / SYNC_INTERVAL + 1);
+        assertEquals(0, counts[0]);
+        assertEquals(0, counts[2]);
+        assertEquals(counts[3], counts[4]);
+    }
+}
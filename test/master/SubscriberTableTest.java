@@ -0,0 +1,62 @@
+package master;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of {@link SubscriberTable}
+ */
+public class SubscriberTableTest {
+
+    private static final long MILLI = 1_000_000L;
+    private static final InetSocketAddress SLAVE = new InetSocketAddress("127.0.0.1", 5000);
+    private static final InetSocketAddress OTHER_SLAVE = new InetSocketAddress("127.0.0.1", 5001);
+
+    @Test
+    public void subscriptionEndsWithItsLease() {
+        SubscriberTable table = new SubscriberTable(60_000);
+        table.register(SLAVE, 1_000, 0);
+        assertEquals(1, table.collect(1_000 * MILLI));
+        assertEquals(SLAVE, table.subscriber(0));
+        assertEquals(0, table.collect(1_000 * MILLI + 1));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void renewalExtendsTheLease() {
+        SubscriberTable table = new SubscriberTable(60_000);
+        table.register(SLAVE, 1_000, 0);
+        table.register(SLAVE, 1_000, 800 * MILLI);
+        assertEquals(1, table.collect(1_500 * MILLI));
+        assertEquals(0, table.collect(1_801 * MILLI));
+    }
+
+    @Test
+    public void leaseOfZeroUnsubscribes() {
+        SubscriberTable table = new SubscriberTable(60_000);
+        table.register(SLAVE, 1_000, 0);
+        table.register(OTHER_SLAVE, 1_000, 0);
+        table.register(SLAVE, 0, 10 * MILLI);
+        assertEquals(1, table.collect(20 * MILLI));
+        assertEquals(OTHER_SLAVE, table.subscriber(0));
+    }
+
+    @Test
+    public void leaseIsCappedByTheLongestLease() {
+        SubscriberTable table = new SubscriberTable(1_000);
+        table.register(SLAVE, 60_000, 0);
+        assertEquals(0, table.collect(1_000 * MILLI + 1));
+    }
+
+    @Test
+    public void leasesAreComparedAcrossTheWrapAroundOfNanoTime() {
+        SubscriberTable table = new SubscriberTable(60_000);
+        long now = Long.MAX_VALUE - 500 * MILLI;
+        table.register(SLAVE, 1_000, now);
+        assertEquals(1, table.collect(now + 900 * MILLI));
+        assertEquals(0, table.collect(now + 1_001 * MILLI));
+    }
+}
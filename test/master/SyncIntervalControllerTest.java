@@ -0,0 +1,100 @@
+package master;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link SyncIntervalController}
+ */
+public class SyncIntervalControllerTest {
+
+    private static final int MIN_INTERVAL = 100;
+    private static final int MAX_INTERVAL = 1000;
+    private static final int QUIET_SYNCS = 8;
+    private static final long QUIET_JITTER = 10_000;
+    private static final long MEDIUM_JITTER = 50_000;
+    private static final long NOISY_JITTER = 200_000;
+
+    /**
+     * Reports the same status from a number of slaves, then asks for the next interval
+     */
+    private static int sync(SyncIntervalController controller, int slaves, boolean locked, long jitter) {
+        for (int i = 0; i < slaves; i++) {
+            controller.report(locked, jitter);
+        }
+        return controller.nextInterval();
+    }
+
+    @Test
+    public void initialIntervalIsBounded() {
+        assertEquals(MIN_INTERVAL, new SyncIntervalController(MIN_INTERVAL, MAX_INTERVAL, 10).interval());
+        assertEquals(MAX_INTERVAL, new SyncIntervalController(MIN_INTERVAL, MAX_INTERVAL, 5000).interval());
+        assertEquals(400, new SyncIntervalController(MIN_INTERVAL, MAX_INTERVAL, 400).interval());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidBoundsAreRefused() {
+        new SyncIntervalController(MAX_INTERVAL, MIN_INTERVAL, 400);
+    }
+
+    @Test
+    public void unlockedSlaveHalvesTheIntervalDownToTheMinimum() {
+        SyncIntervalController controller = new SyncIntervalController(MIN_INTERVAL, MAX_INTERVAL, 800);
+        controller.report(true, QUIET_JITTER);
+        assertEquals(400, sync(controller, 1, false, QUIET_JITTER));
+        assertEquals(200, sync(controller, 1, false, QUIET_JITTER));
+        assertEquals(MIN_INTERVAL, sync(controller, 1, false, QUIET_JITTER));
+        assertEquals(MIN_INTERVAL, sync(controller, 1, false, QUIET_JITTER));
+    }
+
+    @Test
+    public void noisySlaveHalvesTheInterval() {
+        SyncIntervalController controller = new SyncIntervalController(MIN_INTERVAL, MAX_INTERVAL, 800);
+        for (int i = 0; i < 3; i++) {
+            controller.report(true, QUIET_JITTER);
+        }
+        controller.report(true, NOISY_JITTER);
+        assertEquals(400, controller.nextInterval());
+    }
+
+    @Test
+    public void lockedSlavesBackOffUpToTheMaximum() {
+        SyncIntervalController controller = new SyncIntervalController(MIN_INTERVAL, MAX_INTERVAL, 400);
+        for (int i = 1; i < QUIET_SYNCS; i++) {
+            assertEquals(400, sync(controller, 3, true, QUIET_JITTER));
+        }
+        assertEquals(501, sync(controller, 3, true, QUIET_JITTER));
+        int interval = 501;
+        for (int i = 0; i < 10 * QUIET_SYNCS; i++) {
+            int next = sync(controller, 3, true, QUIET_JITTER);
+            assertTrue("interval " + next, next >= interval && next <= MAX_INTERVAL);
+            interval = next;
+        }
+        assertEquals(MAX_INTERVAL, interval);
+    }
+
+    @Test
+    public void intervalStaysWhileASlaveIsNeitherQuietNorNoisy() {
+        SyncIntervalController controller = new SyncIntervalController(MIN_INTERVAL, MAX_INTERVAL, 400);
+        for (int i = 1; i < QUIET_SYNCS; i++) {
+            sync(controller, 3, true, QUIET_JITTER);
+        }
+        // the medium jitter of one slave restarts the count of quiet SYNCs
+        controller.report(true, QUIET_JITTER);
+        assertEquals(400, sync(controller, 1, true, MEDIUM_JITTER));
+        for (int i = 1; i < QUIET_SYNCS; i++) {
+            assertEquals(400, sync(controller, 3, true, QUIET_JITTER));
+        }
+        assertEquals(501, sync(controller, 3, true, QUIET_JITTER));
+    }
+
+    @Test
+    public void syncsWithoutReportsChangeNothing() {
+        SyncIntervalController controller = new SyncIntervalController(MIN_INTERVAL, MAX_INTERVAL, 400);
+        for (int i = 0; i < 10 * QUIET_SYNCS; i++) {
+            assertEquals(400, controller.nextInterval());
+        }
+    }
+}
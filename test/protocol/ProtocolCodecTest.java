@@ -0,0 +1,155 @@
+package protocol;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link ProtocolCodec}
+ *
+ * Description:
+ * The encoding and decoding of every message must not allocate once warmed up: each path is run WARMUP times so that
+ * it is compiled, then ITERATIONS times while the bytes allocated by the thread are counted. Only the codec is
+ * measured, the sockets of the JDK allocate on their own (see the benchmarks module).
+ */
+public class ProtocolCodecTest {
+
+    private static final int BUFFER_SIZE = 256;
+    private static final int WARMUP = 200_000;
+    private static final int ITERATIONS = 100_000;
+    // a few bytes for the measurement itself, far below one byte per operation
+    private static final long TOLERANCE = 1024;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * A codec path measured, its result is consumed so that the JIT compiler cannot remove it
+     */
+    private interface Operation {
+        long run(long iteration);
+    }
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ProtocolCodec codec = new ProtocolCodec();
+    private long sink;
+
+    private long allocatedBytes(Operation operation) {
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP; i++) {
+            sink += operation.run(i);
+        }
+        long before = THREADS.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += operation.run(i);
+        }
+        return THREADS.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    private void assertNoAllocation(String path, Operation operation) {
+        long bytes = allocatedBytes(operation);
+        assertTrue(path + " allocated " + bytes + " bytes in " + ITERATIONS + " operations", bytes <= TOLERANCE);
+    }
+
+    @Test
+    public void encodersDoNotAllocate() {
+        assertNoAllocation("encodeSync", i -> {
+            ProtocolCodec.encodeSync(buffer, i, 2000);
+            return buffer.limit();
+        });
+        assertNoAllocation("encodeSyncOneStep", i -> {
+            ProtocolCodec.encodeSyncOneStep(buffer, i, i, 2000);
+            return buffer.limit();
+        });
+        for (TimestampFormat format : TimestampFormat.values()) {
+            assertNoAllocation("encodeFollowUp " + format, i -> {
+                ProtocolCodec.encodeFollowUp(buffer, i, i, format);
+                return buffer.limit();
+            });
+            assertNoAllocation("encodeDelayRequest " + format, i -> {
+                ProtocolCodec.encodeDelayRequest(buffer, i, format, ProtocolCodec.STATUS_LOCKED, i);
+                return buffer.limit();
+            });
+            assertNoAllocation("encodeDelayResponse " + format, i -> {
+                ProtocolCodec.encodeDelayResponse(buffer, i, i, format);
+                return buffer.limit();
+            });
+        }
+        assertNoAllocation("encodeRegister", i -> {
+            ProtocolCodec.encodeRegister(buffer, i, 4445, 30_000);
+            return buffer.limit();
+        });
+    }
+
+    @Test
+    public void decoderDoesNotAllocate() {
+        ByteBuffer[] messages = new ByteBuffer[5];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+        ProtocolCodec.encodeSync(messages[0], 1, 2000);
+        ProtocolCodec.encodeSyncOneStep(messages[1], 1, System.nanoTime(), 2000);
+        ProtocolCodec.encodeFollowUp(messages[2], 1, System.nanoTime(), TimestampFormat.NANOS);
+        ProtocolCodec.encodeDelayRequest(messages[3], 1, TimestampFormat.MILLIS, ProtocolCodec.STATUS_LOCKED, 10);
+        ProtocolCodec.encodeRegister(messages[4], 1, 4445, 30_000);
+        for (ByteBuffer message : messages) {
+            assertNoAllocation("decode", i -> {
+                message.rewind();
+                codec.decode(message);
+                return codec.id() + codec.timestamp() + codec.commandNumber();
+            });
+        }
+    }
+
+    @Test
+    public void registerWithInvalidFieldsIsRejected() {
+        ProtocolCodec.encodeRegister(buffer, 1, 70_000, 30_000);
+        assertFalse(codec.decode(buffer));
+        ProtocolCodec.encodeRegister(buffer, 1, 0, 30_000);
+        assertFalse(codec.decode(buffer));
+        ProtocolCodec.encodeRegister(buffer, 1, 4445, -1);
+        assertFalse(codec.decode(buffer));
+        // a lease of 0 unsubscribes
+        ProtocolCodec.encodeRegister(buffer, 1, 4445, 0);
+        assertTrue(codec.decode(buffer));
+        assertEquals(Protocol.REGISTER, codec.command());
+        assertEquals(4445, codec.registeredPort());
+        assertEquals(0, codec.leaseMillis());
+    }
+
+    @Test
+    public void followUpRoundTrip() {
+        long masterTime = 1_234_567_890_123L;
+        ProtocolCodec.encodeFollowUp(buffer, 42, masterTime, TimestampFormat.NANOS);
+        assertTrue(codec.decode(buffer));
+        assertEquals(Protocol.FOLLOW_UP, codec.command());
+        assertEquals(42, codec.id());
+        assertEquals(masterTime, codec.timestamp());
+    }
+
+    @Test
+    public void nanosecondsOutsideOfASecondAreRejected() {
+        // command, id and seconds precede the nanoseconds
+        int nanosPosition = Integer.BYTES + 2 * Long.BYTES;
+        ProtocolCodec.encodeFollowUp(buffer, 42, 1_999_999_999L, TimestampFormat.NANOS);
+        assertTrue(codec.decode(buffer));
+        assertEquals(1_999_999_999L, codec.timestamp());
+        for (int nanos : new int[] {-1, 1_000_000_000, Integer.MIN_VALUE, Integer.MAX_VALUE}) {
+            ProtocolCodec.encodeDelayResponse(buffer, 42, 1_000_000_000L, TimestampFormat.NANOS);
+            buffer.putInt(nanosPosition, nanos);
+            assertFalse("nanoseconds " + nanos, codec.decode(buffer));
+            ProtocolCodec.encodeSyncOneStep(buffer, 42, 1_000_000_000L, 2000);
+            buffer.putInt(nanosPosition, nanos);
+            assertFalse("nanoseconds " + nanos, codec.decode(buffer));
+        }
+        // a time before the epoch keeps positive nanoseconds
+        ProtocolCodec.encodeFollowUp(buffer, 42, -1, TimestampFormat.NANOS);
+        assertTrue(codec.decode(buffer));
+        assertEquals(-1, codec.timestamp());
+    }
+}
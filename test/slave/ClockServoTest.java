@@ -0,0 +1,91 @@
+package slave;
+
+import clock.SimulatedTimeSource;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link ClockServo}
+ */
+public class ClockServoTest {
+
+    private static final long START = 1_000_000_000_000L;
+    private static final long SECOND = 1_000_000_000L;
+
+    private final SimulatedTimeSource local = new SimulatedTimeSource(START);
+
+    private ClockServo.State sample(ClockServo servo, long offset) {
+        local.advance(SECOND);
+        return servo.sample(local.currentTimeNanos(), offset);
+    }
+
+    @Test
+    public void errorAboveTenMillisecondsStepsTheClock() {
+        ClockServo servo = new ClockServo();
+        sample(servo, 0);
+        sample(servo, 0);
+        // 9 ms is slewed, the logical clock keeps going from where it was
+        long before = servo.time(local.currentTimeNanos() + SECOND);
+        sample(servo, 9_000_000);
+        assertEquals(9_000_000, servo.lastError());
+        assertEquals(before, servo.time(local.currentTimeNanos()));
+        // 20 ms is stepped, the logical clock jumps to the master time
+        sample(servo, 9_000_000 + 20_000_000);
+        assertEquals(ClockServo.State.UNLOCKED, servo.state());
+        assertEquals(local.currentTimeNanos() - 29_000_000, servo.time(local.currentTimeNanos()));
+    }
+
+    @Test
+    public void frequencyIsClampedAtTheMaximum() {
+        ClockServo servo = new ClockServo();
+        // the local clock runs 1000 ppm fast, twice the correctable range
+        sample(servo, 0);
+        sample(servo, 1_000_000);
+        assertEquals(-500_000, servo.frequency(), 0);
+        for (int i = 2; i < 10; i++) {
+            sample(servo, i * 1_000_000L);
+            assertTrue("frequency " + servo.frequency(), Math.abs(servo.frequency()) <= 500_000);
+        }
+        assertEquals(-500_000, servo.frequency(), 0);
+    }
+
+    @Test
+    public void locksAfterFourSamplesBelowOneHundredMicroseconds() {
+        ClockServo servo = new ClockServo();
+        // the first two samples step the clock
+        assertEquals(ClockServo.State.UNLOCKED, sample(servo, 0));
+        assertEquals(ClockServo.State.UNLOCKED, sample(servo, 0));
+        assertEquals(ClockServo.State.UNLOCKED, sample(servo, 50_000));
+        sample(servo, 50_000);
+        assertEquals(ClockServo.State.UNLOCKED, sample(servo, 50_000));
+        assertEquals(ClockServo.State.LOCKED, sample(servo, 50_000));
+        assertEquals(TimeSnapshot.Quality.LOCKED, servo.snapshot(1, 50_000, 0).quality());
+    }
+
+    @Test
+    public void errorAboveOneHundredMicrosecondsUnlocks() {
+        ClockServo servo = new ClockServo();
+        for (int i = 0; i < 6; i++) {
+            sample(servo, 0);
+        }
+        assertEquals(ClockServo.State.LOCKED, servo.state());
+        assertEquals(ClockServo.State.UNLOCKED, sample(servo, 200_000));
+        assertEquals(TimeSnapshot.Quality.UNLOCKED, servo.snapshot(2, 200_000, 0).quality());
+        // the count of samples below the threshold starts over
+        for (int i = 0; i < 3; i++) {
+            assertEquals(ClockServo.State.UNLOCKED, sample(servo, 0));
+        }
+    }
+
+    @Test
+    public void stepUnlocks() {
+        ClockServo servo = new ClockServo();
+        for (int i = 0; i < 6; i++) {
+            sample(servo, 0);
+        }
+        assertEquals(ClockServo.State.LOCKED, servo.state());
+        assertEquals(ClockServo.State.UNLOCKED, sample(servo, 50_000_000));
+    }
+}
@@ -0,0 +1,80 @@
+package slave;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link DelayRequestCorrelator}
+ */
+public class DelayRequestCorrelatorTest {
+
+    @Test
+    public void responseMatchesItsPendingRequestOnce() {
+        DelayRequestCorrelator correlator = new DelayRequestCorrelator(4);
+        assertTrue(correlator.add(1, 100, 1_000, 0));
+        assertTrue(correlator.add(2, 200, 1_000, 0));
+        assertEquals(2, correlator.pending());
+        assertEquals(200, correlator.complete(2));
+        assertEquals(Long.MIN_VALUE, correlator.complete(2));
+        assertEquals(Long.MIN_VALUE, correlator.complete(3));
+        assertEquals(1, correlator.pending());
+    }
+
+    @Test
+    public void requestIsRefusedWhenAllSlotsArePending() {
+        DelayRequestCorrelator correlator = new DelayRequestCorrelator(2);
+        assertTrue(correlator.add(1, 100, 1_000, 0));
+        assertTrue(correlator.add(2, 200, 1_000, 0));
+        assertFalse(correlator.add(3, 300, 1_000, 0));
+        correlator.complete(1);
+        assertTrue(correlator.add(3, 300, 1_000, 0));
+    }
+
+    @Test
+    public void expiredRequestIsRetransmittedAndItsLateResponseStillMatched() {
+        DelayRequestCorrelator correlator = new DelayRequestCorrelator(4);
+        correlator.add(1, 100, 1_000, 0);
+        assertEquals(-1, correlator.expire(999));
+        assertEquals(0, correlator.expire(1_000));
+        assertEquals(-1, correlator.expire(1_000));
+        assertEquals(0, correlator.pending());
+        // the retransmission takes a free slot, the expired one keeps its t3
+        assertTrue(correlator.add(2, 1_100, 2_000, 1));
+        assertEquals(100, correlator.complete(1));
+        assertEquals(1_100, correlator.complete(2));
+    }
+
+    @Test
+    public void oldestExpiredSlotIsReusedFirst() {
+        DelayRequestCorrelator correlator = new DelayRequestCorrelator(2);
+        correlator.add(1, 100, 1_000, 0);
+        correlator.add(2, 200, 900, 0);
+        correlator.expire(1_000);
+        correlator.expire(1_000);
+        assertTrue(correlator.add(3, 300, 2_000, 1));
+        // the slot of the request 2, whose deadline was the earliest, was reused
+        assertEquals(Long.MIN_VALUE, correlator.complete(2));
+        assertEquals(100, correlator.complete(1));
+    }
+
+    @Test
+    public void deadlinesAreComparedAcrossTheWrapAroundOfNanoTime() {
+        DelayRequestCorrelator correlator = new DelayRequestCorrelator(2);
+        long beforeWrap = Long.MAX_VALUE - 10;
+        long afterWrap = Long.MIN_VALUE + 10;
+        correlator.add(1, 100, afterWrap, 0);
+        correlator.add(2, 200, beforeWrap, 0);
+        assertEquals(beforeWrap, correlator.nextDeadline(afterWrap + 100));
+        assertEquals(beforeWrap - 5, correlator.nextDeadline(beforeWrap - 5));
+        // only the request 2 expired
+        assertEquals(0, correlator.expire(beforeWrap));
+        assertEquals(afterWrap, correlator.nextDeadline(afterWrap + 100));
+        correlator.expire(afterWrap);
+        // the request 2 expired first, its slot is reused first
+        assertTrue(correlator.add(3, 300, afterWrap + 1_000, 1));
+        assertEquals(100, correlator.complete(1));
+    }
+}
@@ -0,0 +1,65 @@
+package slave;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link DelayRequestScheduler}
+ * The waits are randomized between 0.5 and 1.5 times factor * interval, the tests check the range of the factor.
+ */
+public class DelayRequestSchedulerTest {
+
+    private static final int INTERVAL = 1000;
+
+    /**
+     * Checks that a wait was computed with the given factor
+     * @param factor expected factor
+     * @param wait wait returned by the scheduler, in milliseconds
+     */
+    private static void assertFactor(int factor, long wait) {
+        assertTrue("wait " + wait + " for a factor " + factor,
+                wait >= factor * INTERVAL / 2 && wait <= factor * INTERVAL * 3 / 2);
+    }
+
+    @Test
+    public void unstableDelayBurstsThenBacksOff() {
+        DelayRequestScheduler scheduler = new DelayRequestScheduler(1, 32, 8, 20_000);
+        for (int i = 0; i < 8; i++) {
+            assertFactor(1, scheduler.nextWait(INTERVAL, false));
+        }
+        // the burst is over, the factor grows even if the slave is not locked
+        assertFactor(2, scheduler.nextWait(INTERVAL, false));
+        assertFactor(4, scheduler.nextWait(INTERVAL, false));
+    }
+
+    @Test
+    public void delayIsStableAfterEnoughCloseSamples() {
+        DelayRequestScheduler scheduler = new DelayRequestScheduler();
+        for (int i = 0; i < 3; i++) {
+            scheduler.delayMeasured(100_000 + i * 1_000);
+            assertFalse(scheduler.isStable());
+        }
+        scheduler.delayMeasured(101_000);
+        assertTrue(scheduler.isStable());
+        // a jump beyond the tolerance and the deviation
+        scheduler.delayMeasured(500_000);
+        assertFalse(scheduler.isStable());
+    }
+
+    @Test
+    public void stableAndLockedBacksOffUpToTheMaximum() {
+        DelayRequestScheduler scheduler = new DelayRequestScheduler(1, 32, 8, 20_000);
+        for (int i = 0; i < 4; i++) {
+            scheduler.delayMeasured(100_000);
+        }
+        int factor = 1;
+        for (int i = 0; i < 8; i++) {
+            factor = Math.min(32, factor * 2);
+            assertFactor(factor, scheduler.nextWait(INTERVAL, true));
+        }
+        // unlocked again: the burst budget was given back at the maximum
+        assertFactor(1, scheduler.nextWait(INTERVAL, false));
+    }
+}
@@ -0,0 +1,136 @@
+package slave;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link KalmanFilter} against a simulated clock
+ * The simulated local clock starts with an offset of 3 ms and drifts by 50 ppm plus a random walk. Every sync interval
+ * an offset sample is measured with a gaussian noise, some samples are lost and some are delayed by a few
+ * milliseconds like a congested multicast packet. After each sync the offset predicted in the middle of the next
+ * interval is compared to the real one.
+ * An error series has converged from the first sync after which the RMS of every window of WINDOW syncs stays within
+ * SETTLED_FACTOR times its steady-state RMS, measured over the second half of the run. A fixed threshold would not
+ * tell it: the first sample already brings the offset within the noise.
+ */
+public class KalmanFilterTest {
+
+    private static final long INTERVAL = 2_000_000_000L;
+    private static final int SYNCS = 1000;
+    private static final double NOISE = 20_000;
+    // syncs over which the RMS error is compared to the steady-state one
+    private static final int WINDOW = 10;
+    private static final double SETTLED_FACTOR = 3;
+    // syncs after which the filter must have converged
+    private static final int MAX_CONVERGENCE_SYNCS = 300;
+
+    // error of the predicted offset, in nanoseconds, and of the drift, in ppb, after each sync
+    private final double[] errors = new double[SYNCS];
+    private final double[] driftErrors = new double[SYNCS];
+
+    /**
+     * Runs the filter against the simulated clock
+     * @param lossRatio ratio of the samples lost
+     * @param outlierRatio ratio of the samples delayed by 1 to 6 ms
+     * @return the filter
+     */
+    private KalmanFilter simulate(double lossRatio, double outlierRatio) {
+        Random random = new Random(42);
+        KalmanFilter filter = new KalmanFilter(1e4, 1.0, NOISE * NOISE, 5.0);
+        double offset = 3_000_000;
+        double drift = 50_000;
+        for (int i = 0; i < SYNCS; i++) {
+            long localTime = i * INTERVAL;
+            if (random.nextDouble() >= lossRatio) {
+                double measured = offset + random.nextGaussian() * NOISE;
+                if (random.nextDouble() < outlierRatio) {
+                    measured += 1_000_000 + random.nextInt(5_000_000);
+                }
+                filter.add(localTime, (long) measured, 0);
+            }
+            // the real clock moves to the middle of the next interval
+            drift += random.nextGaussian();
+            offset += drift * INTERVAL / 2e9;
+            errors[i] = filter.offset(localTime + INTERVAL / 2) - offset;
+            driftErrors[i] = filter.drift() - drift;
+            offset += drift * INTERVAL / 2e9;
+        }
+        return filter;
+    }
+
+    @Test
+    public void convergesOnCleanSamples() {
+        simulate(0, 0);
+        assertConverged();
+    }
+
+    @Test
+    public void convergesDespiteLossesAndDelayedSamples() {
+        KalmanFilter filter = simulate(0.1, 0.05);
+        assertConverged();
+        // about 45 delayed samples
+        assertTrue("rejected " + filter.rejected(), filter.rejected() >= 20);
+        for (int i = MAX_CONVERGENCE_SYNCS; i < SYNCS; i++) {
+            assertTrue("error " + errors[i] + " ns at sync " + i, Math.abs(errors[i]) < NOISE);
+        }
+    }
+
+    @Test
+    public void predictsTheSamplesWithoutNoise() {
+        KalmanFilter filter = new KalmanFilter();
+        // 50 ppm, from 1 ms
+        for (int i = 0; i < 100; i++) {
+            filter.add(i * INTERVAL, 1_000_000 + i * 100_000L, 0);
+        }
+        assertEquals(50_000, filter.drift(), 100);
+        assertEquals(1_000_000 + 100 * 100_000L, filter.offset(100 * INTERVAL), 1_000);
+    }
+
+    /**
+     * Checks that the offset and the drift converged within MAX_CONVERGENCE_SYNCS, and their steady-state errors
+     */
+    private void assertConverged() {
+        assertTrue("offset converged after " + settledAt(errors) + " syncs",
+                settledAt(errors) <= MAX_CONVERGENCE_SYNCS);
+        assertTrue("drift converged after " + settledAt(driftErrors) + " syncs",
+                settledAt(driftErrors) <= MAX_CONVERGENCE_SYNCS);
+        double offsetRms = rms(errors, MAX_CONVERGENCE_SYNCS, SYNCS);
+        assertTrue("steady-state RMS error " + offsetRms + " ns", offsetRms < NOISE / 4);
+        double driftRms = rms(driftErrors, MAX_CONVERGENCE_SYNCS, SYNCS);
+        assertTrue("steady-state RMS drift error " + driftRms + " ppb", driftRms < 50);
+    }
+
+    /**
+     * Finds the sync from which an error series has converged
+     * @param errors error after each sync
+     * @return the first sync from which the RMS of every window stays within SETTLED_FACTOR times the steady-state RMS
+     */
+    private static int settledAt(double[] errors) {
+        double steadyState = rms(errors, errors.length / 2, errors.length);
+        int settled = 0;
+        for (int i = 0; i + WINDOW <= errors.length; i++) {
+            if (rms(errors, i, i + WINDOW) > SETTLED_FACTOR * steadyState) {
+                settled = i + 1;
+            }
+        }
+        return settled;
+    }
+
+    /**
+     * @param errors error series
+     * @param from first index, inclusive
+     * @param to last index, exclusive
+     * @return the RMS of the errors between the two indexes
+     */
+    private static double rms(double[] errors, int from, int to) {
+        double squares = 0;
+        for (int i = from; i < to; i++) {
+            squares += errors[i] * errors[i];
+        }
+        return Math.sqrt(squares / (to - from));
+    }
+}
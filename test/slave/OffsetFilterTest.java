@@ -0,0 +1,76 @@
+package slave;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link OffsetFilter}
+ */
+public class OffsetFilterTest {
+
+    private static final long SIGMA = 10_000;
+    private static final long DELAY = 100_000;
+
+    @Test
+    public void cleanNoiseIsRarelyRejected() {
+        Random random = new Random(1);
+        OffsetFilter filter = new OffsetFilter();
+        int samples = 100_000;
+        for (int i = 0; i < samples; i++) {
+            filter.add(i, (long) (random.nextGaussian() * SIGMA), DELAY);
+        }
+        double rate = (double) filter.rejected() / samples;
+        // 0.27% for a perfect estimate of the deviation, the MAD of 32 samples adds about 1%
+        assertTrue("false rejection rate " + rate, rate < 0.02);
+    }
+
+    @Test
+    public void spikeIsRejected() {
+        Random random = new Random(2);
+        OffsetFilter filter = new OffsetFilter();
+        for (int i = 0; i < 64; i++) {
+            filter.add(i, (long) (random.nextGaussian() * SIGMA), DELAY);
+        }
+        long before = filter.rejected();
+        assertFalse(filter.add(64, 50 * SIGMA, DELAY));
+        assertEquals(before + 1, filter.rejected());
+    }
+
+    @Test
+    public void levelShiftIsFollowed() {
+        Random random = new Random(3);
+        OffsetFilter filter = new OffsetFilter();
+        for (int i = 0; i < 64; i++) {
+            filter.add(i, (long) (random.nextGaussian() * SIGMA), DELAY);
+        }
+        long shift = 100 * SIGMA;
+        for (int i = 64; i < 128; i++) {
+            filter.add(i, shift + (long) (random.nextGaussian() * SIGMA), DELAY);
+        }
+        assertEquals(shift, filter.offset(128), 3 * SIGMA);
+    }
+
+    @Test
+    public void minDelaySelectsTheLeastDelayedSample() {
+        OffsetFilter filter = new OffsetFilter(4, OffsetFilter.Mode.MIN_DELAY, 3.0);
+        filter.add(0, 1_000, DELAY);
+        filter.add(1, 2_000, DELAY / 2);
+        filter.add(2, 3_000, DELAY);
+        assertEquals(2_000, filter.offset(2));
+    }
+
+    @Test
+    public void minDelaySelectsTheNewestOfEqualDelays() {
+        OffsetFilter filter = new OffsetFilter(4, OffsetFilter.Mode.MIN_DELAY, 3.0);
+        // the window wraps around, the newest sample is not at the end of the ring
+        for (int i = 0; i < 6; i++) {
+            filter.add(i, i * 1_000, DELAY);
+            assertEquals(i * 1_000, filter.offset(i));
+        }
+    }
+}
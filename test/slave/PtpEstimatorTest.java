@@ -0,0 +1,36 @@
+package slave;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link PtpEstimator}
+ */
+public class PtpEstimatorTest {
+
+    @Test
+    public void delayAndOffsetFromTheFourTimestamps() {
+        PtpEstimator estimator = new PtpEstimator();
+        // the slave is 500 ahead of the master, the path takes 100 each way
+        estimator.syncReceived(1, 1_600);
+        assertTrue(estimator.followUpReceived(1, 1_000));
+        assertTrue(estimator.delayExchangeCompleted(2_000, 1_600));
+        assertEquals(100, estimator.meanPathDelay());
+        assertEquals(500, estimator.offset());
+    }
+
+    @Test
+    public void negativeDelayIsRejected() {
+        PtpEstimator estimator = new PtpEstimator();
+        estimator.syncReceived(1, 1_600);
+        estimator.followUpReceived(1, 1_000);
+        estimator.delayExchangeCompleted(2_000, 1_600);
+        // the master stepped back between the two exchanges
+        assertFalse(estimator.delayExchangeCompleted(3_000, 1_000));
+        assertEquals(100, estimator.meanPathDelay());
+        assertEquals(500, estimator.offset());
+    }
+}
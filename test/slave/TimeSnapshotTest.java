@@ -0,0 +1,140 @@
+package slave;
+
+import clock.MonotonicTimeSource;
+import clock.TimeSource;
+import master.Server;
+import org.junit.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link TimeSnapshot}
+ */
+public class TimeSnapshotTest {
+
+    private static final long LOCAL_REF = 1_000_000_000_000L;
+    private static final long LOGICAL_REF = LOCAL_REF - 250_000;
+    private static final long SECOND = 1_000_000_000L;
+    // ports of the tests, away from the ones of a master running on the host
+    private static final int SYNC_PORT = 34445;
+    private static final int DELAY_REQUEST_PORT = 34446;
+    private static final String GROUP = "228.5.6.10";
+    private static final int SYNC_INTERVAL = 50;
+    private static final long MASTER_OFFSET = 50_000_000;
+    private static final long WAIT_MILLIS = 5000;
+
+    /**
+     * Local clock which can be stopped, so that the time read by a test and by the {@link Client} is the same
+     */
+    private static class FreezableTimeSource implements TimeSource {
+
+        private final TimeSource clock = new MonotonicTimeSource();
+        private volatile long frozen = 0;
+
+        @Override
+        public long currentTimeNanos() {
+            long now = frozen;
+            return now != 0 ? now : clock.currentTimeNanos();
+        }
+
+        long freeze() {
+            frozen = clock.currentTimeNanos();
+            return frozen;
+        }
+
+        void resume() {
+            frozen = 0;
+        }
+    }
+
+    @Test
+    public void unsynchronizedTimeIsTheLocalTime() {
+        assertEquals(LOCAL_REF, TimeSnapshot.UNSYNCHRONIZED.time(LOCAL_REF));
+        TimeSnapshot snapshot = new TimeSnapshot(0, LOCAL_REF, LOGICAL_REF, 100_000, 0, 0,
+                TimeSnapshot.Quality.UNSYNCHRONIZED);
+        assertEquals(LOCAL_REF + SECOND, snapshot.time(LOCAL_REF + SECOND));
+    }
+
+    @Test
+    public void lockedTimeAppliesTheOffsetAndTheFrequency() {
+        TimeSnapshot snapshot = new TimeSnapshot(3, LOCAL_REF, LOGICAL_REF, -12_500, 250_000, 80_000,
+                TimeSnapshot.Quality.LOCKED);
+        assertEquals(LOGICAL_REF, snapshot.time(LOCAL_REF));
+        // 12.5 ppm slower over 2 s
+        assertEquals(LOGICAL_REF + 2 * SECOND - 25_000, snapshot.time(LOCAL_REF + 2 * SECOND));
+        // extrapolated backwards as well
+        assertEquals(LOGICAL_REF - SECOND + 12_500, snapshot.time(LOCAL_REF - SECOND));
+        assertEquals(12_500, snapshot.drift(), 0);
+        assertEquals(3, snapshot.epoch());
+        assertEquals(250_000, snapshot.offset());
+        assertEquals(80_000, snapshot.delay());
+    }
+
+    @Test
+    public void unlockedTimeAppliesTheOffsetAndTheFrequency() {
+        TimeSnapshot snapshot = new TimeSnapshot(1, LOCAL_REF, LOGICAL_REF, 40_000, 250_000, 80_000,
+                TimeSnapshot.Quality.UNLOCKED);
+        assertEquals(LOGICAL_REF + SECOND + 40_000, snapshot.time(LOCAL_REF + SECOND));
+        assertEquals(-40_000, snapshot.drift(), 0);
+    }
+
+    @Test
+    public void servoSnapshotFollowsTheLogicalClock() {
+        ClockServo servo = new ClockServo();
+        servo.sample(LOCAL_REF, 250_000);
+        servo.sample(LOCAL_REF + SECOND, 260_000);
+        TimeSnapshot snapshot = servo.snapshot(2, 260_000, 80_000);
+        assertEquals(TimeSnapshot.Quality.UNLOCKED, snapshot.quality());
+        assertEquals(servo.frequency(), -snapshot.drift(), 0);
+        for (long local = LOCAL_REF; local < LOCAL_REF + 10 * SECOND; local += SECOND / 3) {
+            assertEquals(servo.time(local), snapshot.time(local));
+        }
+    }
+
+    /**
+     * Runs a {@link Client} against a {@link Server} 50 ms ahead, then checks that every published snapshot has a
+     * new epoch and that the corrected time is read from the last published one
+     */
+    @Test
+    public void clientPublishesTheSnapshotItReadsTheTimeFrom() throws Exception {
+        InetAddress group = InetAddress.getByName(GROUP);
+        FreezableTimeSource local = new FreezableTimeSource();
+        try (Server server = new Server(group, SYNC_INTERVAL); Client client = new Client(group, SYNC_INTERVAL)) {
+            server.setPorts(SYNC_PORT, DELAY_REQUEST_PORT);
+            server.setTimeSource(() -> local.currentTimeNanos() + MASTER_OFFSET);
+            client.setPorts(SYNC_PORT, DELAY_REQUEST_PORT);
+            client.setTimeSource(local);
+            assertEquals(TimeSnapshot.UNSYNCHRONIZED, client.getSnapshot());
+            client.start();
+            server.start();
+
+            long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+            long lastEpoch = 0;
+            int publications = 0;
+            while (publications < 5 && System.currentTimeMillis() < deadline) {
+                TimeSnapshot before = client.getSnapshot();
+                long now = local.freeze();
+                long time = client.currentTimeNanos();
+                TimeSnapshot after = client.getSnapshot();
+                local.resume();
+                assertTrue("epoch went back from " + lastEpoch + " to " + before.epoch(), before.epoch() >= lastEpoch);
+                if (before == after && before.epoch() > 0) {
+                    assertNotEquals(TimeSnapshot.Quality.UNSYNCHRONIZED, before.quality());
+                    assertEquals(before.time(now), time);
+                    if (before.epoch() > lastEpoch) {
+                        publications++;
+                    }
+                }
+                lastEpoch = before.epoch();
+                Thread.sleep(SYNC_INTERVAL / 5);
+            }
+            assertTrue("only " + publications + " snapshots published", publications >= 5);
+            long error = client.currentTimeNanos() - local.currentTimeNanos() - MASTER_OFFSET;
+            assertTrue("error of " + error + " ns", Math.abs(error) < MASTER_OFFSET / 10);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package timestamping;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeNotNull;
+
+/**
+ * Tests of {@link KernelTimestampReceiver}, skipped without the native library
+ */
+public class KernelTimestampReceiverTest {
+
+    @Test
+    public void shutdownWakesUpTheReceivingThread() throws Exception {
+        KernelTimestampReceiver receiver = KernelTimestampReceiver.tryOpen(0, null);
+        assumeNotNull(receiver);
+        AtomicReference<IOException> failure = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                receiver.receive();
+            } catch (IOException e) {
+                failure.set(e);
+            } finally {
+                receiver.close();
+            }
+        });
+        thread.start();
+        // lets the thread enter recvmsg
+        Thread.sleep(200);
+        receiver.shutdown();
+        thread.join(2000);
+        assertFalse("receive still blocked after the shutdown", thread.isAlive());
+        assertNotNull("receive returned after the shutdown", failure.get());
+    }
+}